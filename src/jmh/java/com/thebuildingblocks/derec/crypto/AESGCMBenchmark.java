@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto;
+
+import com.thebuildingblocks.derec.crypto.aesgcm.Crypto;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per message cost of {@code aesgcm.Crypto} on small payloads, using its per thread Cipher, KeyAgreement and
+ * KeyFactory instances against getting a new instance for each call as it used to
+ * <p>
+ * {@code java -jar target/benchmarks.jar AESGCMBenchmark -t 8}, vary {@code -t} to see the effect of threads
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class AESGCMBenchmark {
+
+    @Param({"cached", "getInstance"})
+    public String primitives;
+
+    @Param({"32", "1024"})
+    public int payloadSize;
+
+    KeyPair alice;
+    KeyPair bob;
+    byte[] bobPublic;
+    SecretKey secretKey;
+    byte[] plainText;
+    byte[] cipherText;
+    byte[] iv;
+
+    @Setup
+    public void setup() {
+        synchronized (Crypto.keyPairGenerator) {
+            alice = Crypto.keyPairGenerator.generateKeyPair();
+            bob = Crypto.keyPairGenerator.generateKeyPair();
+        }
+        bobPublic = bob.getPublic().getEncoded();
+        secretKey = Crypto.generateSecretKey(Crypto.generateSharedSecret(alice.getPrivate(), bob.getPublic()));
+        plainText = Shamir.makeSecret(payloadSize);
+        iv = Crypto.generateIv();
+        cipherText = Crypto.doEncrypt(plainText, secretKey, iv);
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws GeneralSecurityException {
+        // a fresh iv per message, as GCM requires
+        byte[] iv = Crypto.generateIv();
+        if (primitives.equals("cached")) {
+            return Crypto.doEncrypt(plainText, secretKey, iv);
+        }
+        Cipher cipher = Cipher.getInstance(Crypto.ENCRYPT_ALGO);
+        cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(Crypto.TAG_LENGTH_BIT, iv));
+        return cipher.doFinal(plainText);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws GeneralSecurityException {
+        if (primitives.equals("cached")) {
+            return Crypto.doDecrypt(cipherText, secretKey, iv);
+        }
+        Cipher cipher = Cipher.getInstance(Crypto.ENCRYPT_ALGO);
+        cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(Crypto.TAG_LENGTH_BIT, iv));
+        return cipher.doFinal(cipherText);
+    }
+
+    @Benchmark
+    public byte[] sharedSecret() throws GeneralSecurityException {
+        if (primitives.equals("cached")) {
+            return Crypto.generateSharedSecret(alice.getPrivate(), bob.getPublic());
+        }
+        KeyAgreement keyAgreement = KeyAgreement.getInstance(Crypto.KEY_PARAMS.keyAgreementAlgo());
+        keyAgreement.init(alice.getPrivate());
+        keyAgreement.doPhase(bob.getPublic(), true);
+        return keyAgreement.generateSecret();
+    }
+
+    @Benchmark
+    public PublicKey publicKey() throws GeneralSecurityException {
+        if (primitives.equals("cached")) {
+            return Crypto.publicKeyFromByteArray(bobPublic);
+        }
+        return KeyFactory.getInstance(Crypto.KEY_PARAMS.keyFactoryAlgo()).generatePublic(
+                new X509EncodedKeySpec(bobPublic));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(AESGCMBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
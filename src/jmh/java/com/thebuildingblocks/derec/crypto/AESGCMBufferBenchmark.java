@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto;
+
+import com.thebuildingblocks.derec.crypto.aesgcm.Crypto;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocation per message of the {@code byte[]} forms of {@code encryptWithPrefixIv} and {@code decryptWithPrefixIv}
+ * against the {@link ByteBuffer} forms writing into caller supplied heap or direct buffers
+ * <p>
+ * {@code java -jar target/benchmarks.jar AESGCMBufferBenchmark -prof gc}, compare gc.alloc.rate.norm
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AESGCMBufferBenchmark {
+
+    @Param({"array", "heap", "direct"})
+    public String buffers;
+
+    @Param({"32", "1024"})
+    public int payloadSize;
+
+    SecretKey secretKey;
+    byte[] plainText;
+    byte[] cipherText;
+    ByteBuffer plainBuffer;
+    ByteBuffer cipherBuffer;
+    ByteBuffer out;
+
+    @Setup
+    public void setup() {
+        secretKey = Crypto.generateSecretKey(Shamir.makeSecret(32));
+        plainText = Shamir.makeSecret(payloadSize);
+        cipherText = Crypto.encryptWithPrefixIv(plainText, secretKey, Crypto.generateIv());
+        int length = Crypto.prefixIvEncryptedLength(payloadSize);
+        boolean direct = buffers.equals("direct");
+        plainBuffer = direct ? ByteBuffer.allocateDirect(payloadSize) : ByteBuffer.allocate(payloadSize);
+        plainBuffer.put(plainText).flip();
+        cipherBuffer = direct ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+        cipherBuffer.put(cipherText).flip();
+        out = direct ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+    }
+
+    @Benchmark
+    public Object encrypt() {
+        if (buffers.equals("array")) {
+            return Crypto.encryptWithPrefixIv(plainText, secretKey, Crypto.generateIv());
+        }
+        plainBuffer.rewind();
+        out.clear();
+        Crypto.encryptWithPrefixIv(plainBuffer, secretKey, out);
+        return out;
+    }
+
+    @Benchmark
+    public Object decrypt() {
+        if (buffers.equals("array")) {
+            return Crypto.decryptWithPrefixIv(cipherText, secretKey);
+        }
+        cipherBuffer.rewind();
+        out.clear();
+        Crypto.decryptWithPrefixIv(cipherBuffer, secretKey, out);
+        return out;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(AESGCMBufferBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto;
+
+import com.thebuildingblocks.derec.crypto.ShamirInterfaces.BatchEntry;
+import com.thebuildingblocks.derec.crypto.random.DrbgPool;
+import com.thebuildingblocks.derec.crypto.shamir.GF256Splitter;
+import com.thebuildingblocks.derec.crypto.shamir.PackedSplitter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Splitting many small secrets one at a time against {@link GF256Splitter#splitBatch} and against packing them
+ * with {@link PackedSplitter#splitAll} at the same reconstruction threshold, scores are per secret.
+ * <p>
+ * {@code java -jar target/benchmarks.jar BatchSplitBenchmark -prof gc}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@OperationsPerInvocation(BatchSplitBenchmark.BATCH_SIZE)
+public class BatchSplitBenchmark {
+    static final int BATCH_SIZE = 1000;
+
+    @Param({"32", "256"})
+    public int secretSize;
+
+    @Param({"8", "56"})
+    public int shares;
+
+    List<BatchEntry> batch;
+    List<byte[]> secrets;
+    GF256Splitter splitter;
+    PackedSplitter packed;
+
+    @Setup
+    public void setup() {
+        SecureRandom random = new SecureRandom();
+        batch = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            byte[] secret = new byte[secretSize];
+            random.nextBytes(secret);
+            batch.add(new BatchEntry(null, 1, secret));
+        }
+        secrets = batch.stream().map(BatchEntry::secret).toList();
+        splitter = new GF256Splitter(DrbgPool.DEFAULT.secureRandom(), shares, shares / 2);
+        // same reconstruction threshold, half of it given to packing
+        packed = new PackedSplitter(DrbgPool.DEFAULT.secureRandom(), shares, shares / 4, shares / 4);
+    }
+
+    @Benchmark
+    public void individually(Blackhole blackhole) {
+        for (BatchEntry entry : batch) {
+            blackhole.consume(splitter.split(entry.id(), entry.version(), entry.secret()));
+        }
+    }
+
+    @Benchmark
+    public ShamirInterfaces.BatchShares batched() {
+        return splitter.splitBatch(batch);
+    }
+
+    @Benchmark
+    public List<byte[]> packed() {
+        return packed.splitAll(null, 1, secrets);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(BatchSplitBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto;
+
+import com.thebuildingblocks.derec.crypto.random.DrbgPool;
+import com.thebuildingblocks.derec.crypto.shamir.GF256Splitter;
+import com.thebuildingblocks.derec.crypto.shamir.HybridSplitter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shamir splitting a large secret against encrypting it and splitting only the key, with the ciphertext either
+ * erasure coded across the shares or sealed to be stored once
+ * <p>
+ * {@code java -jar target/benchmarks.jar HybridBenchmark -prof gc}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class HybridBenchmark {
+
+    @Param({"65536", "1048576"})
+    public int secretSize;
+
+    @Param({"8", "56"})
+    public int shares;
+
+    byte[] secret;
+    GF256Splitter shamir;
+    HybridSplitter hybrid;
+
+    @Setup
+    public void setup() {
+        secret = Shamir.makeSecret(secretSize);
+        shamir = new GF256Splitter(DrbgPool.DEFAULT.secureRandom(), shares, shares / 2);
+        hybrid = new HybridSplitter(DrbgPool.DEFAULT.secureRandom(), shares, shares / 2);
+    }
+
+    @Benchmark
+    public List<byte[]> shamirSplit() {
+        return shamir.split(null, 1, secret);
+    }
+
+    @Benchmark
+    public List<byte[]> hybridSplit() {
+        return hybrid.split(null, 1, secret);
+    }
+
+    @Benchmark
+    public HybridSplitter.Sealed hybridSeal() {
+        return hybrid.seal(null, 1, secret);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(HybridBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto;
+
+import com.thebuildingblocks.derec.crypto.aesgcm.Counterparty;
+import com.thebuildingblocks.derec.crypto.aesgcm.Crypto;
+import com.thebuildingblocks.derec.crypto.aesgcm.Message.PairingRequest;
+import com.thebuildingblocks.derec.crypto.aesgcm.Message.PairingResponse;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the steps of pairing for each key agreement a {@code Counterparty} can negotiate: generating a key pair,
+ * decoding the counterparty's public key and computing the shared secret, and of a whole pairing between a user
+ * and a helper that only accept that key agreement
+ * <p>
+ * {@code java -jar target/benchmarks.jar KeyAgreementBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyAgreementBenchmark {
+
+    @Param({"ECDH", "XDH"})
+    public String keyAgreement;
+
+    Crypto.KeyParams keyParams;
+    KeyPairGenerator keyPairGenerator;
+    KeyPair alice;
+    KeyPair bob;
+    byte[] bobPublic;
+    Counterparty.User user;
+    Counterparty.Helper helper;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        keyParams = Crypto.keyParams(keyAgreement);
+        keyPairGenerator = KeyPairGenerator.getInstance(keyParams.KeyPairGeneratorAlgo());
+        alice = keyPairGenerator.generateKeyPair();
+        bob = keyPairGenerator.generateKeyPair();
+        bobPublic = bob.getPublic().getEncoded();
+        user = new Counterparty.User("alice");
+        user.setKeyAgreements(List.of(keyAgreement));
+        helper = new Counterparty.Helper("bob");
+        helper.setKeyAgreements(List.of(keyAgreement));
+    }
+
+    @Benchmark
+    public KeyPair generateKeyPair() {
+        return keyPairGenerator.generateKeyPair();
+    }
+
+    @Benchmark
+    public PublicKey publicKey() {
+        return Crypto.publicKeyFromByteArray(bobPublic, keyParams);
+    }
+
+    @Benchmark
+    public byte[] sharedSecret() {
+        return Crypto.generateSharedSecret(alice.getPrivate(), bob.getPublic(), keyParams);
+    }
+
+    /**
+     * Request, response and the user deserializing the response, each through its serialized form
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public PairingResponse pairing() {
+        byte[] request = user.serialize(user.createPairingRequest("bob"));
+        byte[] response = helper.serialize(helper.createPairingResponse(PairingRequest.deserialize(request)));
+        PairingResponse received = PairingResponse.deserialize(response, user.cpDetails.get("bob"));
+        // so that the shared key cache does not fill up
+        user.cpDetails.get("bob").destroy();
+        helper.cpDetails.get("alice").destroy();
+        return received;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(KeyAgreementBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
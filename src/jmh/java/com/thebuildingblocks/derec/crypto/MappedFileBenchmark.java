@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto;
+
+import com.thebuildingblocks.derec.crypto.random.DrbgPool;
+import com.thebuildingblocks.derec.crypto.shamir.GF256Splitter;
+import com.thebuildingblocks.derec.crypto.shamir.MappedFileSplitter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Splitting a file into share files on the heap, reading the secret and writing each share as a {@code byte[]}
+ * as {@link Shamir#main} does, against {@link MappedFileSplitter}.
+ * <p>
+ * {@code java -jar target/benchmarks.jar MappedFileBenchmark -prof gc}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class MappedFileBenchmark {
+
+    @Param({"1048576", "16777216"})
+    public int secretSize;
+
+    @Param({"8", "24"})
+    public int shares;
+
+    Path directory;
+    Path secret;
+    List<Path> shareFiles;
+    GF256Splitter heap;
+    MappedFileSplitter mapped;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("derec-bench");
+        secret = directory.resolve("secret");
+        Files.write(secret, Shamir.makeSecret(secretSize));
+        shareFiles = new ArrayList<>(shares);
+        for (int i = 0; i < shares; i++) {
+            shareFiles.add(directory.resolve("share" + i));
+        }
+        heap = new GF256Splitter(DrbgPool.DEFAULT.secureRandom(), shares, shares / 2);
+        mapped = new MappedFileSplitter(heap, MappedFileSplitter.DEFAULT_WINDOW_SIZE);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public void heapSplit() throws IOException {
+        List<byte[]> split = heap.split(null, 1, Files.readAllBytes(secret));
+        for (int i = 0; i < shares; i++) {
+            Files.write(shareFiles.get(i), split.get(i));
+        }
+    }
+
+    @Benchmark
+    public void mappedSplit() throws IOException {
+        mapped.split(null, 1, secret, shareFiles);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(MappedFileBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
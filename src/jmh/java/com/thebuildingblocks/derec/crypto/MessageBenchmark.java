@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto;
+
+import com.thebuildingblocks.derec.crypto.aesgcm.Counterparty;
+import com.thebuildingblocks.derec.crypto.aesgcm.Message.PairingRequest;
+import com.thebuildingblocks.derec.crypto.aesgcm.Message.PairingResponse;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost and allocation of serializing and deserializing pairing messages, into exact size arrays or into and out of
+ * a reused buffer
+ * <p>
+ * {@code java -jar target/benchmarks.jar MessageBenchmark -prof gc}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+
+    @Param({"array", "buffer"})
+    public String codec;
+
+    Counterparty.User user;
+    Counterparty.Helper helper;
+    PairingRequest request;
+    PairingResponse response;
+    byte[] requestMessage;
+    byte[] responseMessage;
+    ByteBuffer out = ByteBuffer.allocate(1024);
+
+    @Setup
+    public void setup() {
+        user = new Counterparty.User("alice");
+        helper = new Counterparty.Helper("bob");
+        request = user.createPairingRequest("bob");
+        requestMessage = user.serialize(request);
+        response = helper.createPairingResponse(PairingRequest.deserialize(requestMessage));
+        responseMessage = helper.serialize(response);
+        PairingResponse.deserialize(responseMessage, user.cpDetails.get("bob"));
+    }
+
+    @Benchmark
+    public Object serializeRequest() {
+        if (codec.equals("array")) {
+            return user.serialize(request);
+        }
+        user.serialize(request, out.clear());
+        return out;
+    }
+
+    @Benchmark
+    public PairingRequest deserializeRequest() {
+        if (codec.equals("array")) {
+            return PairingRequest.deserialize(requestMessage);
+        }
+        return PairingRequest.deserialize(out.clear().put(requestMessage).flip());
+    }
+
+    @Benchmark
+    public Object serializeResponse() {
+        if (codec.equals("array")) {
+            return helper.serialize(response);
+        }
+        helper.serialize(response, out.clear());
+        return out;
+    }
+
+    @Benchmark
+    public PairingResponse deserializeResponse() {
+        if (codec.equals("array")) {
+            return PairingResponse.deserialize(responseMessage, user.cpDetails.get("bob"));
+        }
+        return PairingResponse.deserialize(out.clear().put(responseMessage).flip(), user.cpDetails.get("bob"));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(MessageBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto;
+
+import com.thebuildingblocks.derec.crypto.provider.ProviderPolicy;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steady state cost of each primitive {@link ProviderPolicy} chooses for, with the JDK provider and with Bouncy
+ * Castle, the same operations it times when calibrating
+ * <p>
+ * {@code java -jar target/benchmarks.jar ProviderBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProviderBenchmark {
+
+    @Param({"AES_GCM", "ECDH", "RSA", "SHA256_SIGNATURE", "SHA_256"})
+    public ProviderPolicy.Primitive primitive;
+
+    @Param({"jdk", "BC"})
+    public String provider;
+
+    ProviderPolicy.Operation operation;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        operation = primitive.operation(provider.equals("BC") ? ProviderPolicy.bouncyCastle() : jdkProvider());
+    }
+
+    private Provider jdkProvider() {
+        for (Provider candidate : Security.getProviders()) {
+            if (candidate != ProviderPolicy.bouncyCastle()) {
+                try {
+                    primitive.operation(candidate);
+                    return candidate;
+                } catch (GeneralSecurityException e) {
+                    // try the next
+                }
+            }
+        }
+        throw new IllegalStateException("No JDK provider for " + primitive);
+    }
+
+    @Benchmark
+    public void operation() throws GeneralSecurityException {
+        operation.run();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ProviderBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
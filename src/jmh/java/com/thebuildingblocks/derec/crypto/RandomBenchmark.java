@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto;
+
+import com.thebuildingblocks.derec.crypto.random.DrbgPool;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Contention for randomness between threads: a single shared SecureRandom as {@code aesgcm.Crypto} used for IVs,
+ * a new SecureRandom per call as {@code CustomKeyTrans} did, and {@link DrbgPool} directly and through its
+ * SecureRandom view. Sizes are an IV and a block of Shamir coefficients.
+ * <p>
+ * {@code java -jar target/benchmarks.jar RandomBenchmark -t 8}, vary {@code -t} to see contention grow
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class RandomBenchmark {
+
+    @Param({"shared", "new", "pool", "pool-secure-random"})
+    public String source;
+
+    @Param({"12", "16384"})
+    public int size;
+
+    Consumer<byte[]> nextBytes;
+
+    @Setup
+    public void setup() {
+        nextBytes = switch (source) {
+            case "shared" -> new SecureRandom()::nextBytes;
+            case "new" -> bytes -> new SecureRandom().nextBytes(bytes);
+            case "pool" -> DrbgPool.DEFAULT::nextBytes;
+            case "pool-secure-random" -> DrbgPool.DEFAULT.secureRandom()::nextBytes;
+            default -> throw new IllegalArgumentException("Unknown source " + source);
+        };
+    }
+
+    @State(Scope.Thread)
+    public static class Buffer {
+        byte[] bytes;
+
+        @Setup
+        public void setup(RandomBenchmark benchmark) {
+            bytes = new byte[benchmark.size];
+        }
+    }
+
+    @Benchmark
+    public byte[] nextBytes(Buffer buffer) {
+        nextBytes.accept(buffer.bytes);
+        return buffer.bytes;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(RandomBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto;
+
+import com.thebuildingblocks.derec.crypto.random.DrbgPool;
+import com.thebuildingblocks.derec.crypto.shamir.GF256Splitter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rotating a secret to a new version by combining and splitting again, against refreshing the shares with
+ * shares of zero
+ * <p>
+ * {@code java -jar target/benchmarks.jar RefreshBenchmark -prof gc}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class RefreshBenchmark {
+
+    @Param({"16384", "1048576"})
+    public int secretSize;
+
+    @Param({"8", "56"})
+    public int shares;
+
+    GF256Splitter splitter;
+    List<byte[]> split;
+
+    @Setup
+    public void setup() {
+        splitter = new GF256Splitter(DrbgPool.DEFAULT.secureRandom(), shares, shares / 2);
+        split = splitter.split(null, 1, Shamir.makeSecret(secretSize));
+    }
+
+    @Benchmark
+    public List<byte[]> resplit() {
+        return splitter.split(null, 2, splitter.combine(null, 1, split));
+    }
+
+    @Benchmark
+    public List<byte[]> refresh() {
+        return splitter.refresh(null, 2, split);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(RefreshBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
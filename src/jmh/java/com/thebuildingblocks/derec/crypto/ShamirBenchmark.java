@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto;
+
+import com.thebuildingblocks.derec.crypto.shamir.AdaptiveSplitterFactory;
+import com.thebuildingblocks.derec.crypto.shamir.Splitters;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Split and combine timings for each {@link ShamirInterfaces.Splitter} over a grid of secret size, share count
+ * and threshold, like {@link Shamir#main} but warmed up and measured by JMH.
+ * <p>
+ * Build with {@code mvn -P jmh package} and run {@code java -jar target/benchmarks.jar ShamirBenchmark -prof gc},
+ * narrowing the grid with e.g. {@code -p splitter=codahale -p secretSize=16384}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ShamirBenchmark {
+
+    @Param({"codahale", "gf256-table", "gf256-swar", "gf256-vector", "gf256-parallel", "adaptive"})
+    public String splitter;
+
+    @Param({"1024", "4096", "16384"})
+    public int secretSize;
+
+    @Param({"8", "56", "120", "248"})
+    public int shares;
+
+    // 0 means shares / 2, as in Shamir.main
+    @Param({"0"})
+    public int threshold;
+
+    ShamirInterfaces.Splitter instance;
+    byte[] secret;
+    List<byte[]> split;
+    List<byte[]> parts;
+
+    @Setup
+    public void setup() {
+        int k = threshold == 0 ? shares / 2 : threshold;
+        if (splitter.equals(Splitters.ADAPTIVE)) {
+            // as an application would at startup for its workloads
+            AdaptiveSplitterFactory.DEFAULT.calibrate(
+                    List.of(AdaptiveSplitterFactory.Bucket.of(secretSize, shares, k)));
+        }
+        instance = Splitters.factory(splitter).newSplitter(shares, k);
+        secret = Shamir.makeSecret(secretSize);
+        split = instance.split(null, 1, secret);
+        parts = split.subList(0, k);
+    }
+
+    @Benchmark
+    public List<byte[]> split() {
+        return instance.split(null, 1, secret);
+    }
+
+    @Benchmark
+    public byte[] combine() {
+        return instance.combine(null, 1, parts);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ShamirBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
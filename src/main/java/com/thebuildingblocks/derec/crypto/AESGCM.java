@@ -24,15 +24,12 @@ import com.thebuildingblocks.derec.crypto.aesgcm.Counterparty.User;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import static com.thebuildingblocks.derec.crypto.aesgcm.Crypto.keyPairGenerator;
-
 /**
  * Prototype of initial AES-GCM based pairing and encryption proposal for DeRec
  */
 public class AESGCM {
     static Logger logger = LoggerFactory.getLogger(AESGCM.class);
     public static void main(String[] args) {
-        logger.info("Key pair algorithm {}", keyPairGenerator.getAlgorithm());
         // alice creates a pairing request
         User alice = new User("alice");
         PairingRequest pairingRequest = alice.createPairingRequest("bob");
@@ -49,7 +46,8 @@ public class AESGCM {
         PairingResponse incomingPairingResponse = PairingResponse.deserialize(pairingResponseMessage,
                 // alice has to know it is from "bob" otherwise she can't decrypt (the encrypted part
                 // contains the fact that is from bob)
-                alice.cpDetails.get("bob").getPrivate());
-        logger.info("Alice: Incoming pairing response from {}", incomingPairingResponse.originatorName);
+                alice.cpDetails.get("bob"));
+        logger.info("Alice: Incoming pairing response from {} using {}", incomingPairingResponse.originatorName,
+                incomingPairingResponse.keyAgreement);
     }
 }
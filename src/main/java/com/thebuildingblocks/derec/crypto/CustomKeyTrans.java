@@ -17,6 +17,7 @@
 
 package com.thebuildingblocks.derec.crypto;
 
+import com.thebuildingblocks.derec.crypto.random.DrbgPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -154,7 +155,7 @@ public class CustomKeyTrans {
                                        OutputStream outputStream) throws IOException, GeneralSecurityException {
         // generate secret key with which to encrypt message
         KeyGenerator kgen = KeyGenerator.getInstance(SECRET_KEY_ALGORITHM);
-        kgen.init(SECRET_KEY_SIZE);
+        kgen.init(SECRET_KEY_SIZE, DrbgPool.DEFAULT.secureRandom());
         SecretKey secretKey = kgen.generateKey();
 
         // encrypt the secret key with their public key
@@ -165,7 +166,7 @@ public class CustomKeyTrans {
 
         // get an iv and write it
         byte[] iv = new byte[IV_LENGTH];
-        new SecureRandom().nextBytes(iv);
+        DrbgPool.DEFAULT.nextBytes(iv);
         IvParameterSpec ivSpec = new IvParameterSpec(iv);
         outputStream.write(ivSpec.getIV());
 
@@ -17,6 +17,8 @@
 
 package com.thebuildingblocks.derec.crypto;
 
+import com.thebuildingblocks.derec.crypto.provider.ProviderPolicy;
+import com.thebuildingblocks.derec.crypto.random.DrbgPool;
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.cms.*;
 import org.bouncycastle.cms.jcajce.JceCMSContentEncryptorBuilder;
@@ -45,6 +47,8 @@ import static com.thebuildingblocks.derec.crypto.util.Crypto.generateKeyPair;
  * Cryptographic Message Syntax (CMS)
  * <p>
  * Since this is a key agreement technique there is no need to sign the content
+ * <p>
+ * Uses Bouncy Castle throughout, as the JDK providers have no ECDH with a CMS key derivation function
  */
 public class RFC5652KeyAgree {
 
@@ -100,11 +104,12 @@ public class RFC5652KeyAgree {
         JceKeyAgreeRecipientInfoGenerator recipientInfoGenerator =
                 new JceKeyAgreeRecipientInfoGenerator(KEY_AGREEMENT_ALGO, initiatorPrivateKey, initiatorCert.getPublicKey(), KEY_ENCRYPTION_ALGO)
                 .addRecipient(recipientCert)
-                .setProvider("BC");
+                .setProvider(ProviderPolicy.bouncyCastle());
         envelopedGen.addRecipientInfoGenerator(recipientInfoGenerator);
 
         OutputEncryptor outputEncryptor = new JceCMSContentEncryptorBuilder(CMSAlgorithm.AES256_CBC)
-                .setProvider("BC")
+                .setProvider(ProviderPolicy.bouncyCastle())
+                .setSecureRandom(DrbgPool.DEFAULT.secureRandom())
                 .build();
         return envelopedGen.generate(new CMSProcessableByteArray(data), outputEncryptor).getEncoded();
     }
@@ -123,6 +128,7 @@ public class RFC5652KeyAgree {
         RecipientInformationStore recipients = envelopedData.getRecipientInfos();
         RecipientId rid = new JceKeyAgreeRecipientId(recipientCert);
         RecipientInformation recipient = recipients.get(rid);
-        return recipient.getContent(new JceKeyAgreeEnvelopedRecipient(recipientPrivateKey).setProvider("BC"));
+        return recipient.getContent(new JceKeyAgreeEnvelopedRecipient(recipientPrivateKey)
+                .setProvider(ProviderPolicy.bouncyCastle()));
     }
 }
@@ -17,6 +17,8 @@
 
 package com.thebuildingblocks.derec.crypto;
 
+import com.thebuildingblocks.derec.crypto.provider.ProviderPolicy;
+import com.thebuildingblocks.derec.crypto.random.DrbgPool;
 import org.bouncycastle.asn1.ASN1InputStream;
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.asn1.cms.ContentInfo;
@@ -24,7 +26,6 @@ import org.bouncycastle.cert.X509CertificateHolder;
 import org.bouncycastle.cert.jcajce.JcaCertStore;
 import org.bouncycastle.cms.*;
 import org.bouncycastle.cms.jcajce.*;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.operator.ContentSigner;
 import org.bouncycastle.operator.DigestCalculatorProvider;
 import org.bouncycastle.operator.OperatorCreationException;
@@ -42,7 +43,6 @@ import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyPair;
 import java.security.PrivateKey;
-import java.security.Security;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
@@ -68,10 +68,6 @@ public class RFC5652KeyTrans {
     public static final ASN1ObjectIdentifier CONTENT_ENCRYPTION_ALGORITHM = CMSAlgorithm.AES128_GCM;
     static Logger logger = LoggerFactory.getLogger(RFC5652KeyTrans.class.getSimpleName());
 
-    static {
-        Security.addProvider(new BouncyCastleProvider());
-    }
-
     public static void main(String[] args) throws Exception {
         KeyPair aliceKeyPair = generateKeyPair(KEY_PAIR_ALGORITHM, KEY_SIZE);
         KeyPair bobKeyPair = generateKeyPair(KEY_PAIR_ALGORITHM, KEY_SIZE);
@@ -122,10 +118,11 @@ public class RFC5652KeyTrans {
         JcaCertStore certStore = new JcaCertStore(List.of(signingCertificate));
 
         ContentSigner contentSigner = new JcaContentSignerBuilder(CONTENT_SIGNATURE_ALGORITHM)
+                .setProvider(ProviderPolicy.DEFAULT.provider(ProviderPolicy.Primitive.SHA256_SIGNATURE))
                 .build(signingKey);
         DigestCalculatorProvider digestCalculatorProvider =
                 new JcaDigestCalculatorProviderBuilder()
-                        .setProvider("BC")
+                        .setProvider(ProviderPolicy.DEFAULT.provider(ProviderPolicy.Primitive.SHA_256))
                         .build();
         SignerInfoGenerator signerInfoGenerator =
                 new JcaSignerInfoGeneratorBuilder(digestCalculatorProvider)
@@ -209,10 +206,14 @@ public class RFC5652KeyTrans {
     public static byte[] encryptData(CMSTypedData msg, X509Certificate encryptionCertificate)
             throws CertificateEncodingException, CMSException, IOException {
         CMSEnvelopedDataGenerator cmsEnvelopedDataGenerator = new CMSEnvelopedDataGenerator();
-        JceKeyTransRecipientInfoGenerator jceKey = new JceKeyTransRecipientInfoGenerator(encryptionCertificate);
+        JceKeyTransRecipientInfoGenerator jceKey = new JceKeyTransRecipientInfoGenerator(encryptionCertificate)
+                .setProvider(ProviderPolicy.DEFAULT.provider(ProviderPolicy.Primitive.RSA));
         cmsEnvelopedDataGenerator.addRecipientInfoGenerator(jceKey);
+        // the JDK providers have no key generator registered under the CMS content encryption OIDs
         OutputEncryptor encryptor =
-                new JceCMSContentEncryptorBuilder(CONTENT_ENCRYPTION_ALGORITHM).setProvider("BC").build();
+                new JceCMSContentEncryptorBuilder(CONTENT_ENCRYPTION_ALGORITHM)
+                        .setProvider(ProviderPolicy.bouncyCastle())
+                        .setSecureRandom(DrbgPool.DEFAULT.secureRandom()).build();
         CMSEnvelopedData cmsEnvelopedData = cmsEnvelopedDataGenerator.generate(msg, encryptor);
         return cmsEnvelopedData.getEncoded();
     }
@@ -221,7 +222,9 @@ public class RFC5652KeyTrans {
         CMSEnvelopedData envelopedData = new CMSEnvelopedData(encryptedData);
         Collection<RecipientInformation> recip = envelopedData.getRecipientInfos().getRecipients();
         KeyTransRecipientInformation recipientInfo = (KeyTransRecipientInformation) recip.iterator().next();
-        JceKeyTransRecipient recipient = new JceKeyTransEnvelopedRecipient(decryptionKey);
+        JceKeyTransRecipient recipient = new JceKeyTransEnvelopedRecipient(decryptionKey)
+                .setProvider(ProviderPolicy.DEFAULT.provider(ProviderPolicy.Primitive.RSA))
+                .setContentProvider(ProviderPolicy.bouncyCastle());
         return recipientInfo.getContent(recipient);
     }
 }
\ No newline at end of file
@@ -18,24 +18,231 @@
 package com.thebuildingblocks.derec.crypto;
 
 import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
 import org.graalvm.polyglot.Source;
 import org.graalvm.polyglot.Value;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 
 /**
  * Work in progress to assess viability of cross compilation from Rust and use via GraalVM
  * Requires installation of GraalVM toolchain.
+ * <p>
+ * A bridge to functions in LLVM bitcode compiled from Rust. Bitcode is parsed once into a {@link Source} and
+ * compiled code is shared between contexts through a single {@link Engine}. Contexts are kept in a bounded pool,
+ * each already having evaluated the bitcode and keeping the function handles it has looked up, so a call costs a
+ * pool borrow rather than context creation and parsing. A context is used by one thread at a time.
  */
-public class Rust {
-    public static void main(String[] args) throws IOException {
-        File file=new File("derec_crypto-44e324e36f8dbc75.bc");
-        Context context = Context.newBuilder().allowAllAccess(true).build();
-        Source source = Source.newBuilder("llvm", file).build();
+public class Rust implements AutoCloseable {
+    public static final String DEFAULT_BITCODE = "derec_crypto-44e324e36f8dbc75.bc";
+    public static final int DEFAULT_POOL_SIZE = Runtime.getRuntime().availableProcessors();
+
+    private static final String LANGUAGE = "llvm";
+
+    private final Engine engine;
+    private final Source source;
+    private final int poolSize;
+    // guards the pool state below, so that release and close cannot interleave
+    private final Object lock = new Object();
+    private final Deque<Bitcode> idle = new ArrayDeque<>();
+    private int created;
+    private int borrowed;
+    private boolean closed;
+
+    /**
+     * A context that has evaluated the bitcode, with the function handles looked up so far
+     */
+    public static final class Bitcode {
+        private final Context context;
+        private final Value bindings;
+        private final Map<String, Value> functions = new HashMap<>();
+
+        private Bitcode(Context context, Value bindings) {
+            this.context = context;
+            this.bindings = bindings;
+        }
+
+        /**
+         * @param name an exported function
+         * @return its handle, only valid while the context is borrowed
+         * @throws IllegalArgumentException if the bitcode does not export it
+         */
+        public Value function(String name) {
+            return functions.computeIfAbsent(name, key -> {
+                Value function = bindings.getMember(key);
+                if (function == null || !function.canExecute()) {
+                    throw new IllegalArgumentException("No function " + key + " in bitcode");
+                }
+                return function;
+            });
+        }
+
+        public Context context() {
+            return context;
+        }
+    }
+
+    /**
+     * @param bitcode a bitcode file
+     * @param poolSize the most contexts to create
+     * @throws IOException if the bitcode cannot be read
+     */
+    public Rust(File bitcode, int poolSize) throws IOException {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1");
+        }
+        this.engine = Engine.newBuilder().option("engine.WarnInterpreterOnly", "false").build();
+        this.source = Source.newBuilder(LANGUAGE, bitcode).cached(true).build();
+        this.poolSize = poolSize;
+    }
+
+    public Rust(File bitcode) throws IOException {
+        this(bitcode, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * Create contexts ahead of use, so that the first calls do not pay for it
+     * @param count how many, at most the pool size
+     * @param functions functions to look up in each
+     */
+    public void warm(int count, String... functions) {
+        List<Bitcode> warmed = new ArrayList<>();
+        try {
+            for (int i = 0; i < Math.min(count, poolSize); i++) {
+                Bitcode bitcode = borrow();
+                warmed.add(bitcode);
+                for (String function : functions) {
+                    bitcode.function(function);
+                }
+            }
+        } finally {
+            warmed.forEach(this::release);
+        }
+    }
+
+    /**
+     * Run some work with a context to itself, Values from it must not escape the work
+     * @param work what to do
+     * @return its result
+     */
+    public <T> T apply(Function<Bitcode, T> work) {
+        Bitcode bitcode = borrow();
+        try {
+            return work.apply(bitcode);
+        } finally {
+            release(bitcode);
+        }
+    }
+
+    /**
+     * Call a function
+     * @param function the exported name
+     * @param resultType the Java type to convert the result to
+     * @param arguments arguments, converted by the polyglot rules
+     * @return the result
+     */
+    public <T> T execute(String function, Class<T> resultType, Object... arguments) {
+        return apply(bitcode -> bitcode.function(function).execute(arguments).as(resultType));
+    }
+
+    private Bitcode borrow() {
+        synchronized (lock) {
+            while (true) {
+                if (closed) {
+                    throw new IllegalStateException("Rust bridge is closed");
+                }
+                Bitcode bitcode = idle.poll();
+                if (bitcode != null) {
+                    borrowed++;
+                    return bitcode;
+                }
+                if (created < poolSize) {
+                    // counted as borrowed while being created, so that the engine stays open for it
+                    created++;
+                    borrowed++;
+                    break;
+                }
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted waiting for a context", e);
+                }
+            }
+        }
+        try {
+            return create();
+        } catch (RuntimeException e) {
+            synchronized (lock) {
+                created--;
+                borrowed--;
+                // another thread may now create one
+                lock.notifyAll();
+                closeEngineIfIdle();
+            }
+            throw e;
+        }
+    }
+
+    private Bitcode create() {
+        // the bitcode is only passed numbers, so it needs native access and nothing else
+        Context context = Context.newBuilder(LANGUAGE).engine(engine).allowNativeAccess(true).build();
         context.eval(source);
-        Value ruspart= context.getBindings("llvm").getMember("cube_root");
-        Double cubeRoot = ruspart.execute(10).asDouble();
-        System.out.println(cubeRoot);
+        return new Bitcode(context, context.getBindings(LANGUAGE));
+    }
+
+    private void release(Bitcode bitcode) {
+        synchronized (lock) {
+            borrowed--;
+            if (closed) {
+                bitcode.context.close();
+                closeEngineIfIdle();
+            } else {
+                idle.add(bitcode);
+                lock.notify();
+            }
+        }
+    }
+
+    // once closed, the engine is closed when no context is borrowed, as it cannot be while one is executing
+    private void closeEngineIfIdle() {
+        if (closed && borrowed == 0) {
+            engine.close();
+        }
+    }
+
+    /**
+     * Close the idle contexts, and the engine once no context is in use. Contexts in use are closed when released,
+     * and threads waiting for a context are woken to fail.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Bitcode bitcode : idle) {
+                bitcode.context.close();
+            }
+            idle.clear();
+            lock.notifyAll();
+            closeEngineIfIdle();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        try (Rust rust = new Rust(new File(DEFAULT_BITCODE), 1)) {
+            Double cubeRoot = rust.execute("cube_root", Double.class, 10);
+            System.out.println(cubeRoot);
+        }
     }
 }
@@ -18,15 +18,18 @@
 package com.thebuildingblocks.derec.crypto;
 
 import com.codahale.shamir.Scheme;
+import com.thebuildingblocks.derec.crypto.random.DrbgPool;
 
 import java.nio.charset.StandardCharsets;
-import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
  * Crude test of timing of splitting and joining Shamir secrets
+ * <p>
+ * Single cold calls timed in milliseconds are dominated by JIT warmup and GC, for figures to rely on use
+ * {@code ShamirBenchmark} in the {@code jmh} profile, which sweeps the same grid.
  */
 public class Shamir {
     /**
@@ -51,15 +54,9 @@ public class Shamir {
 
     private static Result measure(int secretSize, int shares, int threshold) {
         // create the scheme
-        final Scheme scheme = new Scheme(new SecureRandom(), shares, threshold);
+        final Scheme scheme = new Scheme(DrbgPool.DEFAULT.secureRandom(), shares, threshold);
 
-        // set up the secret to contain the signature followed by
-        // bytes containing their index in the array
-        final byte[] secret = new byte [secretSize];
-        System.arraycopy(signature,0,secret,0, signature.length);
-        for (int index = signature.length; index < secretSize; index++) {
-            secret[index] = (byte) (index % 256);
-        }
+        final byte[] secret = makeSecret(secretSize);
 
         // split the secret
         long splitStartTime = System.currentTimeMillis();
@@ -83,4 +80,18 @@ public class Shamir {
         }
         return new Result(secretSize, shares, threshold, splitEndTime-splitStartTime, joinEndTime-joinStartTime);
     }
+
+    /**
+     * Make a test secret
+     * @param secretSize size of the secret
+     * @return the signature followed by bytes containing their index in the array
+     */
+    public static byte[] makeSecret(int secretSize) {
+        final byte[] secret = new byte [secretSize];
+        System.arraycopy(signature,0,secret,0, signature.length);
+        for (int index = signature.length; index < secretSize; index++) {
+            secret[index] = (byte) (index % 256);
+        }
+        return secret;
+    }
 }
\ No newline at end of file
@@ -17,9 +17,21 @@
 
 package com.thebuildingblocks.derec.crypto;
 
+import com.thebuildingblocks.derec.crypto.random.DrbgPool;
+import com.thebuildingblocks.derec.crypto.secret.SecretBuffer;
+import com.thebuildingblocks.derec.crypto.secret.SecretBufferPool;
 import org.derecalliance.derec.api.DeRecSecret;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public interface ShamirInterfaces {
@@ -33,6 +45,16 @@ public interface ShamirInterfaces {
          * @return a splitter
          */
         Splitter newSplitter(SecureRandom random, int count, int threshold);
+
+        /**
+         * create a new Shamir splitter drawing its randomness from {@link DrbgPool#DEFAULT}
+         * @param count the number of shares to produce
+         * @param threshold the recombination threshold
+         * @return a splitter
+         */
+        default Splitter newSplitter(int count, int threshold) {
+            return newSplitter(DrbgPool.DEFAULT.secureRandom(), count, threshold);
+        }
     }
 
     interface Splitter {
@@ -41,10 +63,209 @@ public interface ShamirInterfaces {
          * @param id a secret id
          * @param version a version
          * @param secret some bytes
-         * @return a list of shares suitable for redistribution
+         * @return a list of shares suitable for redistribution, each share starts with its x coordinate
          */
         List<byte[]> split(DeRecSecret.Id id, int version, byte[] secret);
 
+        /**
+         * Recombine shares produced by {@link #split}
+         * @param id the secret id
+         * @param version the version
+         * @param shares at least threshold shares, in any order
+         * @return the secret
+         */
         byte[] combine(DeRecSecret.Id id, int version, List<byte[]> shares);
+
+        /**
+         * Split a secret held off heap into shares held off heap, closing the shares is the caller's responsibility
+         * <p>
+         * This default passes through the heap, implementations should override it to avoid that
+         * @param id a secret id
+         * @param version a version
+         * @param secret the secret
+         * @param pool where to get buffers for the shares
+         * @return shares in the same format as {@link #split(DeRecSecret.Id, int, byte[])}
+         */
+        default List<SecretBuffer> split(DeRecSecret.Id id, int version, SecretBuffer secret,
+                                         SecretBufferPool pool) {
+            byte[] bytes = secret.toByteArray();
+            try {
+                List<SecretBuffer> shares = new ArrayList<>();
+                for (byte[] share : split(id, version, bytes)) {
+                    shares.add(pool.copyOf(share));
+                    Arrays.fill(share, (byte) 0);
+                }
+                return shares;
+            } finally {
+                Arrays.fill(bytes, (byte) 0);
+            }
+        }
+
+        /**
+         * Recombine shares held off heap into a secret held off heap, closing it is the caller's responsibility
+         * <p>
+         * This default passes through the heap, implementations should override it to avoid that
+         * @param id the secret id
+         * @param version the version
+         * @param shares at least threshold shares, in any order
+         * @param pool where to get a buffer for the secret
+         * @return the secret
+         */
+        default SecretBuffer combine(DeRecSecret.Id id, int version, List<SecretBuffer> shares,
+                                     SecretBufferPool pool) {
+            List<byte[]> parts = new ArrayList<>(shares.size());
+            byte[] secret = null;
+            try {
+                for (SecretBuffer share : shares) {
+                    parts.add(share.toByteArray());
+                }
+                secret = combine(id, version, parts);
+                return pool.copyOf(secret);
+            } finally {
+                parts.forEach(part -> Arrays.fill(part, (byte) 0));
+                if (secret != null) {
+                    Arrays.fill(secret, (byte) 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Splitting and combining a block at a time, so that memory use depends on the block size and not on the
+     * size of the secret. The bytes written to a share sink are the same as the corresponding share from
+     * {@link Splitter#split}.
+     */
+    interface StreamSplitter {
+        /**
+         * Split a secret read from a channel, writing each share to its own channel as it goes
+         * @param id a secret id
+         * @param version a version
+         * @param secret the secret, read to end of stream
+         * @param shares a channel per share, share i having x coordinate i + 1
+         * @throws IOException if reading or writing fails
+         */
+        void split(DeRecSecret.Id id, int version, ReadableByteChannel secret,
+                   List<? extends WritableByteChannel> shares) throws IOException;
+
+        /**
+         * Recombine shares read from channels
+         * @param id the secret id
+         * @param version the version
+         * @param shares at least threshold channels, each positioned at the start of a share
+         * @param secret where to write the secret
+         * @throws IOException if reading or writing fails
+         */
+        void combine(DeRecSecret.Id id, int version, List<? extends ReadableByteChannel> shares,
+                     WritableByteChannel secret) throws IOException;
+
+        default void split(DeRecSecret.Id id, int version, InputStream secret, List<? extends OutputStream> shares)
+                throws IOException {
+            List<WritableByteChannel> channels = new ArrayList<>(shares.size());
+            for (OutputStream share : shares) {
+                channels.add(Channels.newChannel(share));
+            }
+            split(id, version, Channels.newChannel(secret), channels);
+        }
+
+        default void combine(DeRecSecret.Id id, int version, List<? extends InputStream> shares,
+                             OutputStream secret) throws IOException {
+            List<ReadableByteChannel> channels = new ArrayList<>(shares.size());
+            for (InputStream share : shares) {
+                channels.add(Channels.newChannel(share));
+            }
+            combine(id, version, channels, Channels.newChannel(secret));
+        }
+    }
+
+    /**
+     * One secret of a batch
+     * @param id a secret id
+     * @param version a version
+     * @param secret some bytes
+     */
+    record BatchEntry(DeRecSecret.Id id, int version, byte[] secret) {
+    }
+
+    /**
+     * The shares of a batch of secrets, held contiguously with everything for one share index (i.e. one helper)
+     * together
+     */
+    interface BatchShares {
+        int secretCount();
+
+        int shareCount();
+
+        /**
+         * All the shares for one share index, the x coordinate followed by the payload for each secret in turn,
+         * without copying
+         * @param shareIndex share index, x coordinate is index + 1
+         * @return a read only view
+         */
+        ByteBuffer row(int shareIndex);
+
+        /**
+         * @param secretIndex index in the batch
+         * @param shareIndex share index, x coordinate is index + 1
+         * @return the share in the form returned by {@link Splitter#split}
+         */
+        byte[] share(int secretIndex, int shareIndex);
+
+        /**
+         * @param secretIndex index in the batch
+         * @return the shares of that secret, in the form returned by {@link Splitter#split}
+         */
+        default List<byte[]> shares(int secretIndex) {
+            List<byte[]> shares = new ArrayList<>(shareCount());
+            for (int i = 0; i < shareCount(); i++) {
+                shares.add(share(secretIndex, i));
+            }
+            return shares;
+        }
+    }
+
+    /**
+     * Proactive refresh of shares for a new version without reconstructing the secret. Shares of zero, the values
+     * of fresh random polynomials whose constant term is zero, are added to the old shares, giving shares of the
+     * same secret that cannot be combined with the old ones.
+     * <p>
+     * All the new shares for a version must come from the same call to {@link #refresh}, or have the same updates
+     * applied. The threshold of the refresher must be that of the original split.
+     */
+    interface Refresher {
+        /**
+         * Refresh shares in one place
+         * @param id the secret id
+         * @param version the new version
+         * @param shares shares of the old version, all of which are refreshed
+         * @return new shares with the same x coordinates, in the same order
+         */
+        List<byte[]> refresh(DeRecSecret.Id id, int version, List<byte[]> shares);
+
+        /**
+         * Deal shares of zero so that holders of shares can refresh independently. Each participant deals one
+         * update per x coordinate, every holder applies the updates for its x from all participants.
+         * @param id the secret id
+         * @param version the new version
+         * @param xs the x coordinates of the shares being refreshed
+         * @param length the length of the secret
+         * @return an update for each x, in the same format as a share
+         */
+        List<byte[]> zeroShares(DeRecSecret.Id id, int version, int[] xs, int length);
+
+        /**
+         * @param share a share of the old version
+         * @param updates updates for its x from {@link #zeroShares}
+         * @return the share for the new version
+         */
+        byte[] applyUpdates(byte[] share, List<byte[]> updates);
+    }
+
+    interface BatchSplitter {
+        /**
+         * Split many secrets in one call, sharing setup and random number generation between them
+         * @param batch the secrets
+         * @return their shares, secrets in batch order
+         */
+        BatchShares splitBatch(List<BatchEntry> batch);
     }
 }
@@ -17,12 +17,18 @@
 
 package com.thebuildingblocks.derec.crypto.aesgcm;
 
+import com.thebuildingblocks.derec.crypto.aesgcm.Crypto.KeyParams;
+
 import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
 import java.security.KeyPair;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.text.Normalizer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -37,25 +43,141 @@ public class Counterparty {
     /**
      * Storing info about counterparties here, encryption, status etc.
      * <p>
-     * TODO need to be concerned about storing secrets in a way that could be stolen from the JVM by an adversary
+     * The encryption key, derived from the shared secret with HKDF, is made into one {@link SecretKey} that is used
+     * for every message. Like the private key it is a heap object, as JCA providers require, and cannot be wiped,
+     * so {@link #destroy()} only drops it, leaving the bytes to the GC.
+     * <p>
+     * Key pairs come from a {@link KeyPairPool}, generated in the background ahead of use.
+     * <p>
+     * Each secret has its own {@link NonceSequence}, when that runs out the rekey callback is run and the secret
+     * can no longer be used to encrypt.
      */
     public static class CounterpartyRecord {
-        // our public / private keys for this counterparty
+        // our public keys offered to this counterparty, one per key agreement, until one is chosen
+        Map<String, KeyPair> offered = new LinkedHashMap<>();
+
+        // the key agreement in use with this counterparty and our public / private keys for it
+        KeyParams keyParams;
         KeyPair keyPair;
 
         // our encryption key for this counterparty
         SecretKey secretKey;
 
+        // nonces for encrypting with the secret key
+        NonceSequence nonces;
+
+        // run when the nonces for the secret key run out
+        Runnable rekey = () -> {
+        };
+
         public CounterpartyRecord() {
-            this.keyPair = Crypto.keyPairGenerator.generateKeyPair();
+            this(List.of(Crypto.KEY_PARAMS));
+        }
+
+        /**
+         * @param keyAgreements key agreements to offer, in order of preference, chosen at once if only one
+         */
+        public CounterpartyRecord(List<KeyParams> keyAgreements) {
+            for (KeyParams params : keyAgreements) {
+                offered.put(params.keyAgreementAlgo(), KeyPairPool.forAlgorithm(params.KeyPairGeneratorAlgo()).take());
+            }
+            if (keyAgreements.size() == 1) {
+                select(keyAgreements.get(0));
+            }
+        }
+
+        /**
+         * Settle on one of the key agreements offered, discarding the key pairs for the others
+         * @param keyParams the key agreement the counterparty chose
+         */
+        void select(KeyParams keyParams) {
+            KeyPair chosen = offered(keyParams);
+            this.keyParams = keyParams;
+            this.keyPair = chosen;
+            this.offered = Map.of(keyParams.keyAgreementAlgo(), chosen);
+        }
+
+        /**
+         * @param keyParams a key agreement
+         * @return the key pair we offered for it, leaving the record as it is
+         * @throws IllegalArgumentException if it was not offered
+         */
+        KeyPair offered(KeyParams keyParams) {
+            String name = keyParams.keyAgreementAlgo();
+            KeyPair offer = offered.get(name);
+            if (offer == null) {
+                throw new IllegalArgumentException("Key agreement " + name + " was not offered");
+            }
+            return offer;
+        }
+
+        /**
+         * @return our public key for each key agreement offered, X.509 encoded, in order of preference
+         */
+        Map<String, ByteBuffer> offeredPublicKeys() {
+            Map<String, ByteBuffer> publicKeys = new LinkedHashMap<>();
+            offered.forEach((name, pair) -> publicKeys.put(name, EncodedKeys.encoded(pair.getPublic())));
+            return publicKeys;
+        }
+
+        /**
+         * @return the key agreement in use with the counterparty, null until chosen
+         */
+        public KeyParams getKeyParams() {
+            return keyParams;
+        }
+
+        /**
+         * @param secretKey the encryption key, with a fresh nonce sequence
+         */
+        void setSecretKey(SecretKey secretKey) {
+            this.secretKey = secretKey;
+            nonces = new NonceSequence(() -> rekey.run());
+        }
+
+        /**
+         * @param rekey called once when the secret has been used for as many messages as it may be
+         */
+        public void setRekey(Runnable rekey) {
+            this.rekey = rekey;
+        }
+
+        /**
+         * @return the nonce sequence for encrypting with the secret key
+         */
+        public NonceSequence getNonces() {
+            return nonces;
+        }
+
+        /**
+         * @return the encryption key
+         */
+        SecretKey getSecretKey() {
+            return secretKey;
+        }
+
+        /**
+         * Drop the encryption key and any keys derived with our key pairs from {@link DerivedKeyCache#SHARED}
+         */
+        public void destroy() {
+            offered.values().forEach(DerivedKeyCache.SHARED::invalidate);
+            secretKey = null;
+            nonces = null;
+        }
+
+        public KeyPair getKeyPair() {
+            if (keyPair == null) {
+                throw new IllegalStateException("No key agreement chosen yet");
+            }
+            return this.keyPair;
         }
 
         public PublicKey getPublic() {
-            return this.keyPair.getPublic();
+            return getKeyPair().getPublic();
         }
 
         public PrivateKey getPrivate() {
-            return this.keyPair.getPrivate();
+            return getKeyPair().getPrivate();
         }
     }
 
@@ -66,15 +188,57 @@ public class Counterparty {
     private final String name;
     public Map<String, CounterpartyRecord> cpDetails = new HashMap<>();
 
+    /**
+     * Key agreements offered or accepted by default, in order of preference, where supported. XDH comes first as
+     * X25519 key generation and agreement are an order of magnitude faster than P-256 in the JDK, see
+     * {@code KeyAgreementBenchmark}. {@link Crypto#KEY_PARAMS} is always included.
+     */
+    public static final List<String> DEFAULT_KEY_AGREEMENTS = List.of("XDH", "ECDH");
+
+    private List<KeyParams> keyAgreements;
+
     public Counterparty(String name) {
         // strings in the protocol are defined as being NFC normalized
         this.name = Normalizer.normalize(name, Normalizer.Form.NFC);
+        List<KeyParams> defaults = new ArrayList<>();
+        for (String keyAgreement : DEFAULT_KEY_AGREEMENTS) {
+            KeyParams params = Crypto.KEY_PARAMS_MAP.get(keyAgreement);
+            if (Crypto.isSupported(params)) {
+                defaults.add(params);
+            }
+        }
+        if (!defaults.contains(Crypto.KEY_PARAMS)) {
+            defaults.add(Crypto.KEY_PARAMS);
+        }
+        this.keyAgreements = List.copyOf(defaults);
     }
 
     public String getName() {
         return name;
     }
 
+    /**
+     * @return key agreements this counterparty offers or accepts, in order of preference
+     */
+    public List<KeyParams> getKeyAgreements() {
+        return keyAgreements;
+    }
+
+    /**
+     * @param names key agreements, named as in {@link Crypto#KEY_PARAMS_MAP}, in order of preference
+     * @throws IllegalArgumentException if any is not supported
+     */
+    public void setKeyAgreements(List<String> names) {
+        if (names.isEmpty()) {
+            throw new IllegalArgumentException("Need at least one key agreement");
+        }
+        List<KeyParams> params = new ArrayList<>(names.size());
+        for (String keyAgreement : names) {
+            params.add(Crypto.keyParams(keyAgreement));
+        }
+        this.keyAgreements = List.copyOf(params);
+    }
+
     public static class User extends Counterparty {
 
         public User(String name) {
@@ -82,14 +246,23 @@ public class Counterparty {
         }
 
         public Message.PairingRequest createPairingRequest(String destinationName) {
-            // store a key pair for this helper
-            cpDetails.put(destinationName, new CounterpartyRecord());
-            return new Message.PairingRequest(getName(), cpDetails.get(destinationName).keyPair.getPublic());
+            // store a key pair for each key agreement offered to this helper
+            CounterpartyRecord record = new CounterpartyRecord(getKeyAgreements());
+            cpDetails.put(destinationName, record);
+            return new Message.PairingRequest(getName(), record.offeredPublicKeys());
         }
 
         public byte[] serialize(Message.PairingRequest pairingRequest) {
             return pairingRequest.serialize();
         }
+
+        /**
+         * @param out where to write, at least {@link Message.PairingRequest#serializedLength()} remaining
+         * @return number of bytes written
+         */
+        public int serialize(Message.PairingRequest pairingRequest, ByteBuffer out) {
+            return pairingRequest.serialize(out);
+        }
     }
 
     public static class Helper extends Counterparty {
@@ -99,18 +272,38 @@ public class Counterparty {
         }
 
         public Message.PairingResponse createPairingResponse(Message.PairingRequest pairingRequest) {
-            // first store a key pair for this requester
-            cpDetails.put(pairingRequest.originatorName, new CounterpartyRecord());
-            // create the secret
-            byte[] secret = Crypto.generateSharedSecret(cpDetails.get(pairingRequest.originatorName).getPrivate(),
-                    pairingRequest.originatorPublicKey);
-            cpDetails.get(pairingRequest.originatorName).secretKey = Crypto.generateSecretKey(secret);
-            return new Message.PairingResponse(getName(), pairingRequest.originatorName);
+            // choose the key agreement we most prefer of those offered
+            KeyParams keyParams = getKeyAgreements().stream()
+                    .filter(params -> pairingRequest.keyAgreements().contains(params.keyAgreementAlgo()))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("No key agreement in common with "
+                            + pairingRequest.originatorName));
+            // store a key pair for this requester
+            CounterpartyRecord record = new CounterpartyRecord(List.of(keyParams));
+            cpDetails.put(pairingRequest.originatorName, record);
+            // derive the encryption key, not cached as it is kept in the record
+            SecretKey secretKey = Crypto.deriveSecretKey(record.getPrivate(), Crypto.publicKeyFromByteBuffer(
+                    pairingRequest.originatorPublicKey(keyParams.keyAgreementAlgo()), keyParams),
+                    Message.PAIRING_INFO, keyParams);
+            record.setSecretKey(secretKey);
+            return new Message.PairingResponse(getName(), pairingRequest.originatorName,
+                    keyParams.keyAgreementAlgo());
         }
 
         public byte[] serialize(Message.PairingResponse pairingResponse) {
-            return pairingResponse.serialize(cpDetails.get(pairingResponse.destinationName).secretKey,
-                    cpDetails.get(pairingResponse.destinationName).getPublic());
+            CounterpartyRecord record = cpDetails.get(pairingResponse.destinationName);
+            byte[] message = new byte[pairingResponse.serializedLength(record.getPublic())];
+            serialize(pairingResponse, ByteBuffer.wrap(message));
+            return message;
+        }
+
+        /**
+         * @param out where to write, at least {@link Message.PairingResponse#serializedLength} remaining
+         * @return number of bytes written
+         */
+        public int serialize(Message.PairingResponse pairingResponse, ByteBuffer out) {
+            CounterpartyRecord record = cpDetails.get(pairingResponse.destinationName);
+            return pairingResponse.serialize(record.getSecretKey(), record.getPublic(), record.getNonces(), out);
         }
     }
 }
@@ -21,18 +21,23 @@ import javax.crypto.*;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import com.thebuildingblocks.derec.crypto.random.DrbgPool;
 
 import static java.util.Map.entry;
 
 /**
  * Contains static members to support key pair management and encryption
+ * <p>
+ * Ciphers, key agreements and key factories come from a per thread cache, so the methods here are safe to call
+ * from any thread. The shared {@link #keyPairGenerator} is not, {@link KeyPairPool} is.
  */
 public class Crypto {
 
@@ -58,41 +63,93 @@ public class Crypto {
     public static final String ENCRYPT_ALGO = "AES/GCM/NoPadding";
     public static final int TAG_LENGTH_BIT = 128;
     public static final int IV_LENGTH_BYTE = 12;
+    public static final int TAG_LENGTH_BYTE = TAG_LENGTH_BIT / Byte.SIZE;
+    public static final int KEY_LENGTH_BYTE = 32;
+    public static final String FINGERPRINT_ALGO = "SHA-256";
 
-    static SecureRandom secureRandom = new SecureRandom();
-    static KeyFactory keyFactory;
     public static KeyPairGenerator keyPairGenerator;
 
+    private static final Map<KeyParams, Boolean> SUPPORTED = new ConcurrentHashMap<>();
 
 
-    static {
-        // use BC provider if requested
-        if (!Objects.isNull(System.getProperty("BC")) && Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
-            Security.addProvider(new BouncyCastleProvider());
-        }
 
+    static {
+        // providers, including BC if requested with -DBC, are chosen by ProviderPolicy
         try {
             keyPairGenerator = KeyPairGenerator.getInstance(KEY_PARAMS.KeyPairGeneratorAlgo);
-            keyFactory = java.security.KeyFactory.getInstance(KEY_PARAMS.keyFactoryAlgo);
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         }
         //kpg.initialize(256);
     }
 
+    /**
+     * Look up a set of algos by the name used in {@link #KEY_PARAMS_MAP} and in messages, which is that of its key
+     * agreement
+     * @param name e.g. "ECDH"
+     * @return the algos
+     * @throws IllegalArgumentException if there is no such set or it has no usable key agreement
+     */
+    public static KeyParams keyParams(String name) {
+        KeyParams keyParams = KEY_PARAMS_MAP.get(name);
+        if (keyParams == null || !isSupported(keyParams)) {
+            throw new IllegalArgumentException("Unsupported key agreement " + name);
+        }
+        return keyParams;
+    }
+
+    /**
+     * @param keyParams a set of algos
+     * @return true if the installed providers implement all of them
+     */
+    public static boolean isSupported(KeyParams keyParams) {
+        return SUPPORTED.computeIfAbsent(keyParams, params -> {
+            try {
+                KeyAgreement.getInstance(params.keyAgreementAlgo);
+                KeyFactory.getInstance(params.keyFactoryAlgo);
+                KeyPairGenerator.getInstance(params.KeyPairGeneratorAlgo);
+                return true;
+            } catch (NoSuchAlgorithmException e) {
+                return false;
+            }
+        });
+    }
+
     /**
      * Deserialize a byte array as a PublicKey
      * @param key the byte array X.509 encoded
      * @return the Public Key
      */
     public static PublicKey publicKeyFromByteArray(byte[] key) {
+        return publicKeyFromByteArray(key, KEY_PARAMS);
+    }
+
+    /**
+     * Deserialize a byte array as a PublicKey
+     * @param key the byte array X.509 encoded
+     * @param keyParams the algos the key is for
+     * @return the Public Key
+     */
+    public static PublicKey publicKeyFromByteArray(byte[] key, KeyParams keyParams) {
         try {
-            return keyFactory.generatePublic(new X509EncodedKeySpec(key));
+            return Primitives.keyFactory(keyParams.keyFactoryAlgo).generatePublic(new X509EncodedKeySpec(key));
         } catch (InvalidKeySpecException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Deserialize a buffer as a PublicKey
+     * @param key the key X.509 encoded, from position to limit, position is not changed
+     * @param keyParams the algos the key is for
+     * @return the Public Key
+     */
+    public static PublicKey publicKeyFromByteBuffer(ByteBuffer key, KeyParams keyParams) {
+        byte[] encoded = new byte[key.remaining()];
+        key.duplicate().get(encoded);
+        return publicKeyFromByteArray(encoded, keyParams);
+    }
+
     /**
      * Make a shared secret, whichever way round this is done i.e. whoever is "their" and "our",
      * it should end up with the same thing
@@ -101,20 +158,91 @@ public class Crypto {
      * @return a secret
      */
     public static byte [] generateSharedSecret(PrivateKey ourPrivateKey, PublicKey theirPublicKey) {
+        return generateSharedSecret(ourPrivateKey, theirPublicKey, KEY_PARAMS);
+    }
+
+    /**
+     * Make a shared secret with a given key agreement
+     * @param ourPrivateKey our private key
+     * @param theirPublicKey their public key
+     * @param keyParams the algos the keys are for
+     * @return a secret
+     */
+    public static byte [] generateSharedSecret(PrivateKey ourPrivateKey, PublicKey theirPublicKey,
+                                               KeyParams keyParams) {
         try {
-            KeyAgreement keyAgreement = KeyAgreement.getInstance(KEY_PARAMS.keyAgreementAlgo);
+            KeyAgreement keyAgreement = Primitives.keyAgreement(keyParams.keyAgreementAlgo);
             keyAgreement.init(ourPrivateKey);
             keyAgreement.doPhase(theirPublicKey, true);
             return keyAgreement.generateSecret();
-        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+        } catch (InvalidKeyException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Make an AES key from a shared secret with HKDF, rather than using the secret directly
+     * @param sharedSecret a secret from {@link #generateSharedSecret}, zeroed
+     * @param info context of the use of the key
+     * @return a SecretKey
+     */
+    public static SecretKey deriveSecretKey(byte[] sharedSecret, String info) {
+        byte[] key = Hkdf.derive(null, sharedSecret, info.getBytes(StandardCharsets.UTF_8), KEY_LENGTH_BYTE);
+        Arrays.fill(sharedSecret, (byte) 0);
+        try {
+            return generateSecretKey(key);
+        } finally {
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+
+    /**
+     * Key agreement followed by {@link #deriveSecretKey(byte[], String)}, without a cache, see
+     * {@link DerivedKeyCache}
+     * @param ourPrivateKey our private key
+     * @param theirPublicKey their public key
+     * @param info context of the use of the key
+     * @return a SecretKey
+     */
+    public static SecretKey deriveSecretKey(PrivateKey ourPrivateKey, PublicKey theirPublicKey, String info) {
+        return deriveSecretKey(ourPrivateKey, theirPublicKey, info, KEY_PARAMS);
+    }
+
+    /**
+     * Key agreement with the given algos followed by {@link #deriveSecretKey(byte[], String)}
+     * @param ourPrivateKey our private key
+     * @param theirPublicKey their public key
+     * @param info context of the use of the key
+     * @param keyParams the algos the keys are for
+     * @return a SecretKey
+     */
+    public static SecretKey deriveSecretKey(PrivateKey ourPrivateKey, PublicKey theirPublicKey, String info,
+                                            KeyParams keyParams) {
+        return deriveSecretKey(generateSharedSecret(ourPrivateKey, theirPublicKey, keyParams), info);
+    }
+
+    /**
+     * @param encodedKey an encoded public key
+     * @return its SHA-256 digest
+     */
+    public static byte[] fingerprint(byte[] encodedKey) {
+        return Primitives.digest(FINGERPRINT_ALGO).digest(encodedKey);
+    }
+
+    /**
+     * @param encodedKey an encoded public key, from position to limit, position is not changed
+     * @return its SHA-256 digest
+     */
+    public static byte[] fingerprint(ByteBuffer encodedKey) {
+        MessageDigest digest = Primitives.digest(FINGERPRINT_ALGO);
+        digest.update(encodedKey.duplicate());
+        return digest.digest();
+    }
+
     /**
      * Make a SecretKey for encryption (from a [shared] secret)
      * <p>
-     * TODO raw use of the shared key not recommended?
+     * Raw use of a shared secret is not recommended, see {@link #deriveSecretKey(byte[], String)}
      * @param secret a secret
      * @return a SecretKey
      */
@@ -128,7 +256,7 @@ public class Crypto {
      */
     public static byte [] generateIv() {
         byte[] iv = new byte[IV_LENGTH_BYTE];
-        secureRandom.nextBytes(iv);
+        DrbgPool.DEFAULT.nextBytes(iv);
         return iv;
     }
 
@@ -141,7 +269,7 @@ public class Crypto {
      */
     public static byte[] doEncrypt(byte[] pText, SecretKey secretKey, byte[] iv) {
         try {
-            Cipher cipher = Cipher.getInstance(ENCRYPT_ALGO);
+            Cipher cipher = Primitives.cipher(ENCRYPT_ALGO);
             cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(TAG_LENGTH_BIT, iv));
             return cipher.doFinal(pText);
         } catch (Exception e) {
@@ -157,13 +285,91 @@ public class Crypto {
      * @return a buffer
      */
     public static byte[] encryptWithPrefixIv(byte[] pText, SecretKey secret, byte[] iv) {
+        byte[] out = new byte[iv.length + pText.length + TAG_LENGTH_BYTE];
+        encryptWithPrefixIv(ByteBuffer.wrap(pText), secret, iv, ByteBuffer.wrap(out));
+        return out;
+    }
+
+    /**
+     * @param pTextLength length of plain text
+     * @return length of the output of encrypting it with a prefix iv
+     */
+    public static int prefixIvEncryptedLength(int pTextLength) {
+        return IV_LENGTH_BYTE + pTextLength + TAG_LENGTH_BYTE;
+    }
+
+    /**
+     * @param cTextLength length of cipher text with a prefix iv
+     * @return length of the plain text
+     */
+    public static int prefixIvDecryptedLength(int cTextLength) {
+        if (cTextLength < IV_LENGTH_BYTE + TAG_LENGTH_BYTE) {
+            throw new IllegalArgumentException("Cipher text too short");
+        }
+        return cTextLength - IV_LENGTH_BYTE - TAG_LENGTH_BYTE;
+    }
+
+    /**
+     * Encrypt using supplied secret key and iv from one buffer into another, either may be direct
+     * @param pText plain text, from position to limit, position is advanced to limit
+     * @param secretKey the key to use
+     * @param iv an iv
+     * @param out where to write the cipher text, position is advanced past it
+     * @return number of bytes written
+     */
+    public static int doEncrypt(ByteBuffer pText, SecretKey secretKey, byte[] iv, ByteBuffer out) {
+        return doEncrypt(pText, secretKey, new GCMParameterSpec(TAG_LENGTH_BIT, iv), out);
+    }
+
+    private static int doEncrypt(ByteBuffer pText, SecretKey secretKey, GCMParameterSpec spec, ByteBuffer out) {
+        try {
+            Cipher cipher = Primitives.cipher(ENCRYPT_ALGO);
+            cipher.init(Cipher.ENCRYPT_MODE, secretKey, spec);
+            return cipher.doFinal(pText, out);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Encrypt into a buffer prepended by the supplied iv, without intermediate arrays
+     * @param pText plain text, from position to limit, position is advanced to limit
+     * @param secret encryption secret
+     * @param iv iv
+     * @param out where to write, at least {@link #prefixIvEncryptedLength} remaining, position is advanced
+     * @return number of bytes written
+     */
+    public static int encryptWithPrefixIv(ByteBuffer pText, SecretKey secret, byte[] iv, ByteBuffer out) {
+        checkRemaining(out, iv.length + pText.remaining() + TAG_LENGTH_BYTE);
+        out.put(iv);
+        return iv.length + doEncrypt(pText, secret, iv, out);
+    }
 
-        byte[] cipherText = doEncrypt(pText, secret, iv);
+    /**
+     * Encrypt into a buffer prepended by a fresh iv, which is generated in place
+     * @param pText plain text, from position to limit, position is advanced to limit
+     * @param secret encryption secret
+     * @param out where to write, at least {@link #prefixIvEncryptedLength} remaining, position is advanced
+     * @return number of bytes written
+     */
+    public static int encryptWithPrefixIv(ByteBuffer pText, SecretKey secret, ByteBuffer out) {
+        checkRemaining(out, prefixIvEncryptedLength(pText.remaining()));
+        DrbgPool.DEFAULT.nextBytes(out.slice(out.position(), IV_LENGTH_BYTE));
+        return IV_LENGTH_BYTE + doEncrypt(pText, secret, readIv(out), out);
+    }
 
-        return ByteBuffer.allocate(iv.length + cipherText.length)
-                .put(iv)
-                .put(cipherText)
-                .array();
+    /**
+     * Encrypt into a buffer prepended by the next nonce of a sequence for the key, which is written in place
+     * @param pText plain text, from position to limit, position is advanced to limit
+     * @param secret encryption secret
+     * @param nonces the nonce sequence of the secret
+     * @param out where to write, at least {@link #prefixIvEncryptedLength} remaining, position is advanced
+     * @return number of bytes written
+     */
+    public static int encryptWithPrefixIv(ByteBuffer pText, SecretKey secret, NonceSequence nonces, ByteBuffer out) {
+        checkRemaining(out, prefixIvEncryptedLength(pText.remaining()));
+        nonces.next(out.slice(out.position(), IV_LENGTH_BYTE));
+        return IV_LENGTH_BYTE + doEncrypt(pText, secret, readIv(out), out);
     }
 
     /**
@@ -175,7 +381,7 @@ public class Crypto {
      */
     public static byte[] doDecrypt(byte[] eText, SecretKey secretKey, byte[] iv) {
         try {
-            Cipher cipher = Cipher.getInstance(ENCRYPT_ALGO);
+            Cipher cipher = Primitives.cipher(ENCRYPT_ALGO);
             cipher.init(Cipher.DECRYPT_MODE, secretKey, new GCMParameterSpec(TAG_LENGTH_BIT, iv));
             return cipher.doFinal(eText);
         } catch (Exception e) {
@@ -190,15 +396,66 @@ public class Crypto {
      * @return plain text
      */
     public static byte [] decryptWithPrefixIv(byte[] cText, SecretKey secret) {
+        byte[] out = new byte[prefixIvDecryptedLength(cText.length)];
+        decryptWithPrefixIv(ByteBuffer.wrap(cText), secret, ByteBuffer.wrap(out));
+        return out;
+    }
 
-        ByteBuffer bb = ByteBuffer.wrap(cText);
+    /**
+     * Decrypt using supplied secret key and iv from one buffer into another, either may be direct
+     * @param eText cipher text, from position to limit, position is advanced to limit
+     * @param secretKey secret key
+     * @param iv iv
+     * @param out where to write the plain text, position is advanced past it
+     * @return number of bytes written
+     */
+    public static int doDecrypt(ByteBuffer eText, SecretKey secretKey, byte[] iv, ByteBuffer out) {
+        return doDecrypt(eText, secretKey, new GCMParameterSpec(TAG_LENGTH_BIT, iv), out);
+    }
 
-        byte[] iv = new byte[IV_LENGTH_BYTE];
-        bb.get(iv);
+    private static int doDecrypt(ByteBuffer eText, SecretKey secretKey, GCMParameterSpec spec, ByteBuffer out) {
+        try {
+            Cipher cipher = Primitives.cipher(ENCRYPT_ALGO);
+            cipher.init(Cipher.DECRYPT_MODE, secretKey, spec);
+            return cipher.doFinal(eText, out);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Decrypt with initial part of the buffer being the iv, the rest is decrypted where it lies
+     * @param cText iv and cipher text, from position to limit, position is advanced to limit
+     * @param secret secret key
+     * @param out where to write, at least {@link #prefixIvDecryptedLength} remaining, position is advanced
+     * @return number of bytes written
+     */
+    public static int decryptWithPrefixIv(ByteBuffer cText, SecretKey secret, ByteBuffer out) {
+        checkRemaining(out, prefixIvDecryptedLength(cText.remaining()));
+        return doDecrypt(cText, secret, readIv(cText), out);
+    }
 
-        byte[] cipherText = new byte[bb.remaining()];
-        bb.get(cipherText);
+    /**
+     * Read an iv at the position of a buffer, from its backing array if it has one, advancing past it
+     */
+    private static GCMParameterSpec readIv(ByteBuffer buffer) {
+        GCMParameterSpec spec;
+        if (buffer.hasArray()) {
+            spec = new GCMParameterSpec(TAG_LENGTH_BIT, buffer.array(), buffer.arrayOffset() + buffer.position(),
+                    IV_LENGTH_BYTE);
+            buffer.position(buffer.position() + IV_LENGTH_BYTE);
+        } else {
+            // GCMParameterSpec keeps its own copy of the iv in any case
+            byte[] iv = new byte[IV_LENGTH_BYTE];
+            buffer.get(iv);
+            spec = new GCMParameterSpec(TAG_LENGTH_BIT, iv);
+        }
+        return spec;
+    }
 
-        return doDecrypt(cipherText, secret, iv);
+    static void checkRemaining(ByteBuffer out, int length) {
+        if (out.remaining() < length) {
+            throw new IllegalArgumentException("Need " + length + " bytes in output buffer, have " + out.remaining());
+        }
     }
 }
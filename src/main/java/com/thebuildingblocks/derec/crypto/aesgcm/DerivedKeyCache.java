@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto.aesgcm;
+
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Bounded, expiring LRU cache of keys derived from key agreement, by our key, their public key and the context
+ * of the key. Repeated messages between the same pair then skip the key agreement, which dominates their cost.
+ * <p>
+ * Our key is identified by the fingerprint of our public key and theirs by the fingerprint of its encoding, so
+ * a lookup needs neither a scalar multiplication nor decoding their key. Fingerprints of our keys are made once
+ * per key, see {@link EncodedKeys}.
+ * <p>
+ * Cached keys are ordinary heap objects, so entries for a key pair should be dropped with
+ * {@link #invalidate(KeyPair)} when it is retired rather than left to expire.
+ */
+public class DerivedKeyCache {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final Duration DEFAULT_TIME_TO_LIVE = Duration.ofMinutes(10);
+
+    /**
+     * Cache shared by messages and counterparties that are not given their own
+     */
+    public static final DerivedKeyCache SHARED = new DerivedKeyCache(DEFAULT_CAPACITY, DEFAULT_TIME_TO_LIVE);
+
+    /**
+     * Cache statistics
+     * @param hits lookups answered from the cache
+     * @param misses lookups that did key agreement
+     * @param evictions entries dropped to stay within capacity
+     * @param expirations entries dropped because they were older than the time to live
+     * @param size entries currently held
+     */
+    public record Stats(long hits, long misses, long evictions, long expirations, int size) {
+        public double hitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+    }
+
+    record Key(ByteBuffer ourKeyId, ByteBuffer theirFingerprint, String info) {
+    }
+
+    private record Entry(SecretKey secretKey, long expires) {
+    }
+
+    private final Map<Key, Entry> entries;
+    private final long timeToLive;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * @param capacity the most keys to hold
+     * @param timeToLive how long a key may be used for after it is derived
+     */
+    public DerivedKeyCache(int capacity, Duration timeToLive) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        if (timeToLive.isNegative() || timeToLive.isZero()) {
+            throw new IllegalArgumentException("Time to live must be positive");
+        }
+        this.timeToLive = timeToLive.toNanos();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > capacity) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param ours our key pair
+     * @param theirPublicKey their public key, X.509 encoded
+     * @param info context of the use of the key
+     * @return the derived key, from the cache if present
+     */
+    public SecretKey secretKey(KeyPair ours, byte[] theirPublicKey, String info) {
+        return secretKey(ours, theirPublicKey, info, Crypto.KEY_PARAMS);
+    }
+
+    /**
+     * @param ours our key pair
+     * @param theirPublicKey their public key, X.509 encoded
+     * @param info context of the use of the key
+     * @param keyParams the algos the keys are for
+     * @return the derived key, from the cache if present
+     */
+    public SecretKey secretKey(KeyPair ours, byte[] theirPublicKey, String info, Crypto.KeyParams keyParams) {
+        return secretKey(ours, ByteBuffer.wrap(theirPublicKey), info, keyParams,
+                () -> Crypto.publicKeyFromByteArray(theirPublicKey, keyParams));
+    }
+
+    /**
+     * @param ours our key pair
+     * @param theirPublicKey their public key, X.509 encoded, from position to limit, position is not changed
+     * @param info context of the use of the key
+     * @param keyParams the algos the keys are for
+     * @return the derived key, from the cache if present, their key only being decoded if not
+     */
+    public SecretKey secretKey(KeyPair ours, ByteBuffer theirPublicKey, String info, Crypto.KeyParams keyParams) {
+        return secretKey(ours, theirPublicKey, info, keyParams,
+                () -> Crypto.publicKeyFromByteBuffer(theirPublicKey, keyParams));
+    }
+
+    /**
+     * @param ours our key pair
+     * @param theirPublicKey their public key
+     * @param info context of the use of the key
+     * @return the derived key, from the cache if present
+     */
+    public SecretKey secretKey(KeyPair ours, PublicKey theirPublicKey, String info) {
+        return secretKey(ours, theirPublicKey, info, Crypto.KEY_PARAMS);
+    }
+
+    /**
+     * @param ours our key pair
+     * @param theirPublicKey their public key
+     * @param info context of the use of the key
+     * @param keyParams the algos the keys are for
+     * @return the derived key, from the cache if present
+     */
+    public SecretKey secretKey(KeyPair ours, PublicKey theirPublicKey, String info, Crypto.KeyParams keyParams) {
+        return secretKey(ours, EncodedKeys.encoded(theirPublicKey), info, keyParams, () -> theirPublicKey);
+    }
+
+    private SecretKey secretKey(KeyPair ours, ByteBuffer theirEncoded, String info, Crypto.KeyParams keyParams,
+                                Supplier<PublicKey> theirs) {
+        Key key = new Key(EncodedKeys.fingerprint(ours.getPublic()), ByteBuffer.wrap(Crypto.fingerprint(theirEncoded)),
+                info);
+        long now = System.nanoTime();
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && now - entry.expires() >= 0) {
+                entries.remove(key);
+                expirations.increment();
+                entry = null;
+            }
+        }
+        if (entry != null) {
+            hits.increment();
+            return entry.secretKey();
+        }
+        misses.increment();
+        SecretKey secretKey = Crypto.deriveSecretKey(ours.getPrivate(), theirs.get(), info, keyParams);
+        synchronized (entries) {
+            entries.put(key, new Entry(secretKey, now + timeToLive));
+        }
+        return secretKey;
+    }
+
+    public Stats stats() {
+        synchronized (entries) {
+            return new Stats(hits.sum(), misses.sum(), evictions.sum(), expirations.sum(), entries.size());
+        }
+    }
+
+    /**
+     * Drop every key derived with our key pair
+     * @param ours our key pair
+     */
+    public void invalidate(KeyPair ours) {
+        ByteBuffer ourKeyId = EncodedKeys.fingerprint(ours.getPublic());
+        synchronized (entries) {
+            entries.keySet().removeIf(key -> key.ourKeyId().equals(ourKeyId));
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto.aesgcm;
+
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * X.509 encodings and fingerprints of public keys, made once per key. {@link PublicKey#getEncoded()} returns a new
+ * copy each time it is called, and our keys are encoded for every message and every {@link DerivedKeyCache}
+ * lookup.
+ * <p>
+ * Entries go when their key is no longer reachable.
+ */
+final class EncodedKeys {
+    private record Encoded(ByteBuffer encoding, ByteBuffer fingerprint) {
+    }
+
+    private static final Map<PublicKey, Encoded> ENCODED = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private EncodedKeys() {
+    }
+
+    private static Encoded get(PublicKey publicKey) {
+        Encoded encoded = ENCODED.get(publicKey);
+        if (encoded == null) {
+            byte[] encoding = publicKey.getEncoded();
+            encoded = new Encoded(ByteBuffer.wrap(encoding).asReadOnlyBuffer(),
+                    ByteBuffer.wrap(Crypto.fingerprint(encoding)).asReadOnlyBuffer());
+            ENCODED.put(publicKey, encoded);
+        }
+        return encoded;
+    }
+
+    /**
+     * @param publicKey a public key
+     * @return its X.509 encoding, read only, positioned at its start
+     */
+    static ByteBuffer encoded(PublicKey publicKey) {
+        return get(publicKey).encoding().duplicate();
+    }
+
+    /**
+     * @param publicKey a public key
+     * @return the fingerprint of its encoding, read only, positioned at its start
+     */
+    static ByteBuffer fingerprint(PublicKey publicKey) {
+        return get(publicKey).fingerprint().duplicate();
+    }
+}
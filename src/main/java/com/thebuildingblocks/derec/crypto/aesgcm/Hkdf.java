@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto.aesgcm;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.InvalidKeyException;
+import java.util.Arrays;
+
+/**
+ * HKDF with HMAC-SHA256, <a href="https://datatracker.ietf.org/doc/html/rfc5869">RFC 5869</a>
+ */
+public final class Hkdf {
+    public static final String MAC_ALGO = "HmacSHA256";
+    public static final int HASH_LENGTH = 32;
+
+    private static final byte[] NO_SALT = new byte[HASH_LENGTH];
+
+    private Hkdf() {
+    }
+
+    /**
+     * @param salt optional salt, a string of zeros if null or empty
+     * @param ikm input keying material e.g. a shared secret
+     * @return a pseudorandom key
+     */
+    public static byte[] extract(byte[] salt, byte[] ikm) {
+        return hmac(salt == null || salt.length == 0 ? NO_SALT : salt, ikm);
+    }
+
+    /**
+     * @param prk a pseudorandom key from {@link #extract}
+     * @param info context, so that keys for different purposes are independent
+     * @param length bytes of output, at most 255 times the hash length
+     * @return output keying material
+     */
+    public static byte[] expand(byte[] prk, byte[] info, int length) {
+        if (length < 0 || length > 255 * HASH_LENGTH) {
+            throw new IllegalArgumentException("Invalid length " + length);
+        }
+        try {
+            Mac mac = Primitives.mac(MAC_ALGO);
+            mac.init(new SecretKeySpec(prk, MAC_ALGO));
+            byte[] okm = new byte[length];
+            byte[] block = new byte[0];
+            for (int done = 0, counter = 1; done < length; done += HASH_LENGTH, counter++) {
+                mac.update(block);
+                mac.update(info);
+                mac.update((byte) counter);
+                Arrays.fill(block, (byte) 0);
+                block = mac.doFinal();
+                System.arraycopy(block, 0, okm, done, Math.min(HASH_LENGTH, length - done));
+            }
+            Arrays.fill(block, (byte) 0);
+            return okm;
+        } catch (InvalidKeyException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Extract then expand, zeroing the intermediate key
+     * @param salt optional salt
+     * @param ikm input keying material
+     * @param info context
+     * @param length bytes of output
+     * @return output keying material
+     */
+    public static byte[] derive(byte[] salt, byte[] ikm, byte[] info, int length) {
+        byte[] prk = extract(salt, ikm);
+        try {
+            return expand(prk, info, length);
+        } finally {
+            Arrays.fill(prk, (byte) 0);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, byte[] data) {
+        try {
+            Mac mac = Primitives.mac(MAC_ALGO);
+            mac.init(new SecretKeySpec(key, MAC_ALGO));
+            return mac.doFinal(data);
+        } catch (InvalidKeyException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
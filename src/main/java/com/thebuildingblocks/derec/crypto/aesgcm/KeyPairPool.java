@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto.aesgcm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Key pairs generated ahead of use on a background thread, so that creating a counterparty record takes a key
+ * pair from a queue rather than generating one on the request path. The queue is refilled to its target depth
+ * whenever a pair is taken, if it is empty the caller generates one inline.
+ * <p>
+ * KeyPairGenerator is not thread safe, each thread generating pairs has its own.
+ */
+public class KeyPairPool implements AutoCloseable {
+    static Logger logger = LoggerFactory.getLogger(KeyPairPool.class);
+
+    public static final int DEFAULT_TARGET_DEPTH = 16;
+
+    private static final Map<String, KeyPairPool> SHARED = new ConcurrentHashMap<>();
+
+    /**
+     * Pool statistics
+     * @param depth pairs currently ready
+     * @param generated pairs generated in the background
+     * @param taken pairs handed out, from the pool or inline
+     * @param inline pairs generated inline because the pool was empty
+     * @param refillRate pairs per second the background thread generates while refilling
+     */
+    public record Stats(int depth, long generated, long taken, long inline, double refillRate) {
+    }
+
+    private final String algorithm;
+    private final BlockingQueue<KeyPair> pairs;
+    private final ThreadLocal<KeyPairGenerator> generators;
+    private final ExecutorService refiller;
+    private final AtomicBoolean refilling = new AtomicBoolean();
+
+    private final LongAdder generated = new LongAdder();
+    private final LongAdder taken = new LongAdder();
+    private final LongAdder inline = new LongAdder();
+    private final LongAdder refillNanos = new LongAdder();
+
+    /**
+     * @param algorithm a KeyPairGenerator algorithm
+     * @param targetDepth how many pairs to keep ready
+     */
+    public KeyPairPool(String algorithm, int targetDepth) {
+        if (targetDepth < 1) {
+            throw new IllegalArgumentException("Target depth must be positive");
+        }
+        this.algorithm = algorithm;
+        this.pairs = new ArrayBlockingQueue<>(targetDepth);
+        this.generators = ThreadLocal.withInitial(() -> {
+            try {
+                return KeyPairGenerator.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        // fail now rather than in the background if the algorithm is unknown
+        generators.get();
+        this.refiller = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "key-pair-pool-" + algorithm);
+            thread.setDaemon(true);
+            return thread;
+        });
+        refill();
+    }
+
+    /**
+     * The shared pool for an algorithm, created with {@link #DEFAULT_TARGET_DEPTH} on first use
+     * @param algorithm a KeyPairGenerator algorithm
+     * @return the pool
+     */
+    public static KeyPairPool forAlgorithm(String algorithm) {
+        return SHARED.computeIfAbsent(algorithm, key -> new KeyPairPool(key, DEFAULT_TARGET_DEPTH));
+    }
+
+    public String algorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @return a key pair never handed out before
+     */
+    public KeyPair take() {
+        taken.increment();
+        KeyPair pair = pairs.poll();
+        refill();
+        if (pair == null) {
+            inline.increment();
+            pair = generators.get().generateKeyPair();
+        }
+        return pair;
+    }
+
+    private void refill() {
+        if (pairs.remainingCapacity() > 0 && refilling.compareAndSet(false, true)) {
+            try {
+                refiller.execute(this::fill);
+            } catch (RejectedExecutionException e) {
+                // closed
+                refilling.set(false);
+            }
+        }
+    }
+
+    private void fill() {
+        boolean failed = false;
+        try {
+            KeyPairGenerator generator = generators.get();
+            while (pairs.remainingCapacity() > 0 && !Thread.currentThread().isInterrupted()) {
+                long start = System.nanoTime();
+                KeyPair pair = generator.generateKeyPair();
+                refillNanos.add(System.nanoTime() - start);
+                generated.increment();
+                if (!pairs.offer(pair)) {
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            // callers fall back to generating inline, and retry refilling when they take
+            logger.warn("Key pair pool for {} failed to refill", algorithm, e);
+            failed = true;
+        } finally {
+            refilling.set(false);
+        }
+        // a pair may have been taken after the last check and before the flag was cleared
+        if (!failed && pairs.remainingCapacity() > 0 && !refiller.isShutdown()) {
+            refill();
+        }
+    }
+
+    public Stats stats() {
+        long nanos = refillNanos.sum();
+        long count = generated.sum();
+        return new Stats(pairs.size(), count, taken.sum(), inline.sum(), nanos == 0 ? 0 : count * 1e9 / nanos);
+    }
+
+    /**
+     * Stop refilling, pairs already generated are discarded
+     */
+    @Override
+    public void close() {
+        refiller.shutdownNow();
+        pairs.clear();
+        SHARED.remove(algorithm, this);
+    }
+}
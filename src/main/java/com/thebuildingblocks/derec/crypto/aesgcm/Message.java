@@ -18,23 +18,62 @@
 package com.thebuildingblocks.derec.crypto.aesgcm;
 
 import javax.crypto.SecretKey;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.text.Normalizer;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 
 import static com.thebuildingblocks.derec.crypto.aesgcm.Crypto.*;
 
 /**
  * Contains serializers and deserializers for protocol messages
+ * <p>
+ * A message is written either into a buffer of the caller's, with at least its {@code serializedLength} remaining,
+ * or into an array of exactly that length. Deserializing reads from the position to the limit of a buffer, or all
+ * of an array, and leaves the byte string fields as read only views of it, so it must not be changed while the
+ * message is in use. The plain text of encrypted parts is staged in a buffer per thread.
  */
 public class Message {
 
-    static short PROTOCOL_VERSION = 1;
+    // 2 adds key agreement negotiation
+    static short PROTOCOL_VERSION = 2;
     static short PAIRING_REQUEST_ID = 0;
     static short PAIRING_RESPONSE_ID = 1;
+    static final int HEADER_LENGTH = 2 * Short.BYTES;
+
+    // HKDF context of the key that encrypts pairing responses
+    static final String PAIRING_INFO = "DeRec AES-GCM pairing v1";
+
+    // the longest string as written by putString, which bounds every encrypted payload
+    static final int MAX_STRING_LENGTH = Short.BYTES + 0xFFFF;
+
+    private static final ThreadLocal<ByteBuffer> SCRATCH = ThreadLocal.withInitial(() -> ByteBuffer.allocate(256));
+
+    /**
+     * @param length how many bytes are needed
+     * @return this thread's scratch buffer, grown if need be, with position 0 and limit length, or a buffer of
+     * its own if longer than {@link #MAX_STRING_LENGTH} so that the thread does not keep it
+     */
+    static ByteBuffer scratch(int length) {
+        if (length > MAX_STRING_LENGTH) {
+            return ByteBuffer.allocate(length);
+        }
+        ByteBuffer scratch = SCRATCH.get();
+        if (scratch.capacity() < length) {
+            scratch = ByteBuffer.allocate(Math.min(MAX_STRING_LENGTH, Math.max(length, 2 * scratch.capacity())));
+            SCRATCH.set(scratch);
+        }
+        return scratch.clear().limit(length);
+    }
 
     /**
      * Checks the message is at the right protocol version and is of the right kind
@@ -44,52 +83,168 @@ public class Message {
     static void check(ByteBuffer bb, short messageIdRequired) {
         short protocolVersion = bb.getShort();
         short messageId = bb.getShort();
-        if (protocolVersion != 1 || messageId != messageIdRequired) {
+        if (protocolVersion != PROTOCOL_VERSION || messageId != messageIdRequired) {
             throw new AssertionError("Wrong protocol version or message resultType");
         }
     }
 
+    private static int utf8Length(String string) {
+        for (int i = 0; i < string.length(); i++) {
+            if (string.charAt(i) >= 0x80) {
+                return string.getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+        return string.length();
+    }
+
+    /**
+     * @return the length of a string as written by {@link #putString}
+     */
+    static int stringLength(String string) {
+        return Short.BYTES + utf8Length(string);
+    }
+
+    /**
+     * Write a string as its UTF-8 length and bytes, ASCII without an intermediate array
+     */
+    static ByteBuffer putString(ByteBuffer bb, String string) {
+        int length = utf8Length(string);
+        if (length != string.length()) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            return bb.putShort((short) bytes.length).put(bytes);
+        }
+        bb.putShort((short) length);
+        for (int i = 0; i < length; i++) {
+            bb.put((byte) string.charAt(i));
+        }
+        return bb;
+    }
+
+    static String getString(ByteBuffer bb) {
+        int length = Short.toUnsignedInt(bb.getShort());
+        if (length > bb.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        if (!bb.hasArray()) {
+            byte[] bytes = new byte[length];
+            bb.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        String string = new String(bb.array(), bb.arrayOffset() + bb.position(), length, StandardCharsets.UTF_8);
+        bb.position(bb.position() + length);
+        return string;
+    }
+
+    /**
+     * Take a byte string written as its int length and bytes
+     * @return a read only view of it
+     */
+    static ByteBuffer getBytes(ByteBuffer bb) {
+        int length = bb.getInt();
+        if (length < 0 || length > bb.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        ByteBuffer bytes = bb.slice(bb.position(), length).asReadOnlyBuffer();
+        bb.position(bb.position() + length);
+        return bytes;
+    }
+
     /**
      * Sent from User to Helper to initiate relationship
      * <p>
-     * TODO add parameter negotiation
+     * Offers a public key for each key agreement the User will use, named as in {@link Crypto#KEY_PARAMS_MAP}
+     * and in its order of preference. The Helper chooses one and names it in its {@link PairingResponse}.
      */
     public static class PairingRequest extends Message {
         public final String originatorName;
-        final PublicKey originatorPublicKey;
+        // X.509 encoded, by key agreement, in the originator's order of preference
+        final Map<String, ByteBuffer> originatorPublicKeys;
+        private final int serializedLength;
 
-        PairingRequest(String originatorName, PublicKey originatorPublicKey) {
+        PairingRequest(String originatorName, Map<String, ByteBuffer> originatorPublicKeys) {
             this.originatorName = Normalizer.normalize(originatorName, Normalizer.Form.NFC);
-            this.originatorPublicKey = originatorPublicKey;
+            this.originatorPublicKeys = Collections.unmodifiableMap(new LinkedHashMap<>(originatorPublicKeys));
+            int length = HEADER_LENGTH + stringLength(this.originatorName) + Short.BYTES;
+            for (Map.Entry<String, ByteBuffer> offer : this.originatorPublicKeys.entrySet()) {
+                length += stringLength(offer.getKey()) + Integer.BYTES + offer.getValue().remaining();
+            }
+            this.serializedLength = length;
+        }
+
+        /**
+         * @return the key agreements offered that we support, in the originator's order of preference
+         */
+        public Set<String> keyAgreements() {
+            return originatorPublicKeys.keySet();
+        }
+
+        /**
+         * @param keyAgreement one of {@link #keyAgreements()}
+         * @return the originator's public key for it, X.509 encoded and read only, null if not offered
+         */
+        public ByteBuffer originatorPublicKey(String keyAgreement) {
+            ByteBuffer publicKey = originatorPublicKeys.get(keyAgreement);
+            return publicKey == null ? null : publicKey.duplicate();
         }
 
         public static PairingRequest deserialize(byte[] message) {
-            ByteBuffer bb = ByteBuffer.wrap(message);
-            check(bb, PAIRING_REQUEST_ID);
+            return deserialize(ByteBuffer.wrap(message));
+        }
+
+        /**
+         * @param message the request, from position to limit, position is advanced to its end
+         * @return the request, its public keys being views of the message
+         */
+        public static PairingRequest deserialize(ByteBuffer message) {
+            check(message, PAIRING_REQUEST_ID);
 
-            short nameLength = bb.getShort();
-            byte[] nameBuf = new byte[nameLength];
-            bb.get(nameBuf);
-            String originatorName = new String(nameBuf, StandardCharsets.UTF_8);
+            String originatorName = getString(message);
+
+            short offers = message.getShort();
+            Map<String, ByteBuffer> originatorPublicKeys = new LinkedHashMap<>();
+            for (int i = 0; i < offers; i++) {
+                String keyAgreement = getString(message);
+                ByteBuffer originatorPublicKey = getBytes(message);
+                // ignore offers we can't take up, keys are decoded only if chosen
+                KeyParams keyParams = KEY_PARAMS_MAP.get(keyAgreement);
+                if (keyParams != null && isSupported(keyParams)) {
+                    originatorPublicKeys.put(keyAgreement, originatorPublicKey);
+                }
+            }
+            return new PairingRequest(originatorName, originatorPublicKeys);
+        }
 
-            int publicKeyLength = bb.getInt();
-            byte[] originatorPublicKey = new byte[publicKeyLength];
-            bb.get(originatorPublicKey);
-            return new PairingRequest(originatorName, publicKeyFromByteArray(originatorPublicKey));
+        /**
+         * @return the exact length of the serialized request
+         */
+        public int serializedLength() {
+            return serializedLength;
         }
 
         /* this is not encrypted */
         public byte[] serialize() {
-            // todo optimize buffer
-            byte[] buffer = new byte[2048];
-            ByteBuffer bb = ByteBuffer.wrap(buffer)
-                    .putShort(PROTOCOL_VERSION)
-                    .putShort(PAIRING_REQUEST_ID)
-                    .putShort((short) originatorName.length())
-                    .put(originatorName.getBytes(StandardCharsets.UTF_8))
-                    .putInt(originatorPublicKey.getEncoded().length)
-                    .put(originatorPublicKey.getEncoded());
-            return Arrays.copyOf(bb.array(), bb.position());
+            byte[] message = new byte[serializedLength];
+            serialize(ByteBuffer.wrap(message));
+            return message;
+        }
+
+        /**
+         * @param out where to write, at least {@link #serializedLength()} remaining, position is advanced
+         * @return number of bytes written
+         */
+        public int serialize(ByteBuffer out) {
+            checkRemaining(out, serializedLength);
+            out.putShort(PROTOCOL_VERSION)
+                    .putShort(PAIRING_REQUEST_ID);
+            putString(out, originatorName)
+                    .putShort((short) originatorPublicKeys.size());
+            for (Map.Entry<String, ByteBuffer> offer : originatorPublicKeys.entrySet()) {
+                ByteBuffer publicKey = offer.getValue().duplicate();
+                putString(out, offer.getKey())
+                        .putInt(publicKey.remaining())
+                        .put(publicKey);
+            }
+            return serializedLength;
         }
     }
 
@@ -100,66 +255,188 @@ public class Message {
         // not transmitted
         final transient String destinationName;
 
+        // the key agreement chosen from those offered in the request
+        public final String keyAgreement;
+
         // encrypted payload
         public final String originatorName;
 
         // other fields
 
-        PairingResponse(String originatorName, String destinationName) {
+        PairingResponse(String originatorName, String destinationName, String keyAgreement) {
             this.originatorName = Normalizer.normalize(originatorName, Normalizer.Form.NFC);
             this.destinationName = Normalizer.normalize(destinationName, Normalizer.Form.NFC);
+            this.keyAgreement = keyAgreement;
         }
 
         public static PairingResponse deserialize(byte[] message, PrivateKey myPrivateKey) {
-            ByteBuffer bb = ByteBuffer.wrap(message);
-            check(bb, PAIRING_RESPONSE_ID);
-
-            // get their public key
-            int pkl = bb.getInt();
-            byte[] theirPublicKey = new byte[pkl];
-            bb.get(theirPublicKey);
-            // make the secret
-            byte[] secret = generateSharedSecret(myPrivateKey, publicKeyFromByteArray(theirPublicKey));
-            // get the secret key
-            SecretKey secretKey = generateSecretKey(secret);
+            return deserialize(ByteBuffer.wrap(message), myPrivateKey);
+        }
+
+        /**
+         * @param message the response, from position to limit, position is advanced to its end
+         * @param myPrivateKey our private key for the counterparty
+         * @return the response
+         */
+        public static PairingResponse deserialize(ByteBuffer message, PrivateKey myPrivateKey) {
+            return deserialize(message, (keyParams, theirPublicKey) -> deriveSecretKey(myPrivateKey,
+                    publicKeyFromByteBuffer(theirPublicKey, keyParams), PAIRING_INFO, keyParams),
+                    keyParams -> { });
+        }
+
+        /**
+         * Deserialize using a key from {@link DerivedKeyCache#SHARED}, so that repeated messages from the same
+         * counterparty skip key agreement
+         * @param message the message
+         * @param myKeyPair our key pair for the counterparty
+         * @return the response
+         */
+        public static PairingResponse deserialize(byte[] message, KeyPair myKeyPair) {
+            return deserialize(ByteBuffer.wrap(message), myKeyPair);
+        }
+
+        /**
+         * @param message the response, from position to limit, position is advanced to its end
+         * @param myKeyPair our key pair for the counterparty
+         * @return the response
+         * @see #deserialize(byte[], KeyPair)
+         */
+        public static PairingResponse deserialize(ByteBuffer message, KeyPair myKeyPair) {
+            return deserialize(message, (keyParams, theirPublicKey) ->
+                    DerivedKeyCache.SHARED.secretKey(myKeyPair, theirPublicKey, PAIRING_INFO, keyParams),
+                    keyParams -> { });
+        }
+
+        /**
+         * Deserialize with the key pair the record offered for the key agreement the counterparty chose, which
+         * becomes the record's key pair once the response has been authenticated, see
+         * {@link #deserialize(byte[], KeyPair)}
+         * @param message the message
+         * @param record our record for the counterparty, from the request we sent
+         * @return the response
+         */
+        public static PairingResponse deserialize(byte[] message, Counterparty.CounterpartyRecord record) {
+            return deserialize(ByteBuffer.wrap(message), record);
+        }
+
+        /**
+         * @param message the response, from position to limit, position is advanced to its end
+         * @param record our record for the counterparty, from the request we sent
+         * @return the response
+         * @see #deserialize(byte[], Counterparty.CounterpartyRecord)
+         */
+        public static PairingResponse deserialize(ByteBuffer message, Counterparty.CounterpartyRecord record) {
+            return deserialize(message, (keyParams, theirPublicKey) -> DerivedKeyCache.SHARED.secretKey(
+                    record.offered(keyParams), theirPublicKey, PAIRING_INFO, keyParams), record::select);
+        }
 
-            // get the iv
-            byte[] iv = new byte[IV_LENGTH_BYTE];
-            bb.get(iv);
+        private static PairingResponse deserialize(ByteBuffer message,
+                                                   BiFunction<KeyParams, ByteBuffer, SecretKey> secretKeyFor,
+                                                   Consumer<KeyParams> authenticated) {
+            check(message, PAIRING_RESPONSE_ID);
 
-            // cipher text is remainder of message
-            byte[] cipherText = Arrays.copyOfRange(bb.array(), bb.position(), bb.capacity());
+            // get the key agreement chosen
+            String keyAgreement = getString(message);
+            KeyParams keyParams = keyParams(keyAgreement);
+
+            // get their public key, as a view of the message
+            ByteBuffer theirPublicKey = getBytes(message);
+            // iv and cipher text are the remainder of message, holding no more than a name
+            int payloadLength = prefixIvDecryptedLength(message.remaining());
+            if (payloadLength > MAX_STRING_LENGTH) {
+                throw new IllegalArgumentException("Pairing response payload of " + payloadLength
+                        + " bytes is longer than a name");
+            }
+            // get the secret key
+            SecretKey secretKey = secretKeyFor.apply(keyParams, theirPublicKey);
 
-            byte[] plainText = doDecrypt(cipherText, secretKey, iv);
+            // decrypted into this thread's scratch buffer
+            ByteBuffer payload = scratch(payloadLength);
+            decryptWithPrefixIv(message, secretKey, payload);
+            payload.flip();
+            // only now is the choice of key agreement known to be the counterparty's
+            authenticated.accept(keyParams);
 
             // decode the unencrypted payload into fields
-            ByteBuffer payload = ByteBuffer.wrap(plainText);
-            short nameLength = payload.getShort();
-            byte[] nameBuf = new byte[nameLength];
-            payload.get(nameBuf);
             // we don't know what the destination is
-            return new PairingResponse(new String(nameBuf, StandardCharsets.UTF_8), "");
+            return new PairingResponse(getString(payload), "", keyAgreement);
+        }
+
+        /**
+         * @return the plain text of the encrypted part, in this thread's scratch buffer
+         */
+        private ByteBuffer payload() {
+            return putString(scratch(stringLength(originatorName)), originatorName).flip();
+        }
+
+        /**
+         * @param publicKey our public key
+         * @return the exact length of the serialized response
+         */
+        public int serializedLength(PublicKey publicKey) {
+            return serializedLength(EncodedKeys.encoded(publicKey));
         }
 
-        byte[] encrypt(SecretKey secretKey, byte[] iv) {
-            ByteBuffer bb = ByteBuffer.allocate(1024) // todo random length
-                    .putShort((short) originatorName.getBytes(StandardCharsets.UTF_8).length)
-                    .put(originatorName.getBytes(StandardCharsets.UTF_8));
-            byte[] plainText = Arrays.copyOf(bb.array(), bb.position());
-            return doEncrypt(plainText, secretKey, iv);
+        private int serializedLength(ByteBuffer encodedKey) {
+            return HEADER_LENGTH + stringLength(keyAgreement) + Integer.BYTES + encodedKey.remaining()
+                    + prefixIvEncryptedLength(stringLength(originatorName));
+        }
+
+        private void putHeader(ByteBuffer out, ByteBuffer encodedKey) {
+            out.putShort(PROTOCOL_VERSION)
+                    .putShort(PAIRING_RESPONSE_ID);
+            putString(out, keyAgreement)
+                    .putInt(encodedKey.remaining())
+                    .put(encodedKey);
         }
 
         public byte[] serialize(SecretKey secretKey, PublicKey publicKey) {
-            byte[] iv = generateIv();
-            byte[] cipherText = encrypt(secretKey, iv);
-            ByteBuffer bb = ByteBuffer.allocate(cipherText.length + publicKey.getEncoded().length + iv.length + 8)
-                    .putShort(PROTOCOL_VERSION)
-                    .putShort(PAIRING_RESPONSE_ID)
-                    .putInt(publicKey.getEncoded().length)
-                    .put(publicKey.getEncoded())
-                    .put(iv)
-                    .put(cipherText);
-            return Arrays.copyOf(bb.array(), bb.position());
+            return serialize(secretKey, publicKey, generateIv());
+        }
+
+        /**
+         * @param secretKey the key to encrypt with
+         * @param publicKey our public key
+         * @param iv a nonce never used before with the key, e.g. from its {@link NonceSequence}
+         * @return the message
+         */
+        public byte[] serialize(SecretKey secretKey, PublicKey publicKey, byte[] iv) {
+            byte[] message = new byte[serializedLength(publicKey)];
+            serialize(secretKey, publicKey, iv, ByteBuffer.wrap(message));
+            return message;
+        }
+
+        /**
+         * @param secretKey the key to encrypt with
+         * @param publicKey our public key
+         * @param iv a nonce never used before with the key
+         * @param out where to write, at least {@link #serializedLength(PublicKey)} remaining, position is advanced
+         * @return number of bytes written
+         */
+        public int serialize(SecretKey secretKey, PublicKey publicKey, byte[] iv, ByteBuffer out) {
+            ByteBuffer encodedKey = EncodedKeys.encoded(publicKey);
+            int length = serializedLength(encodedKey);
+            checkRemaining(out, length);
+            putHeader(out, encodedKey);
+            encryptWithPrefixIv(payload(), secretKey, iv, out);
+            return length;
+        }
+
+        /**
+         * @param secretKey the key to encrypt with
+         * @param publicKey our public key
+         * @param nonces the nonce sequence of the key, the next nonce is written in place
+         * @param out where to write, at least {@link #serializedLength(PublicKey)} remaining, position is advanced
+         * @return number of bytes written
+         * @throws IllegalStateException if the nonces have run out, see {@link NonceSequence}
+         */
+        public int serialize(SecretKey secretKey, PublicKey publicKey, NonceSequence nonces, ByteBuffer out) {
+            ByteBuffer encodedKey = EncodedKeys.encoded(publicKey);
+            int length = serializedLength(encodedKey);
+            checkRemaining(out, length);
+            putHeader(out, encodedKey);
+            encryptWithPrefixIv(payload(), secretKey, nonces, out);
+            return length;
         }
     }
 }
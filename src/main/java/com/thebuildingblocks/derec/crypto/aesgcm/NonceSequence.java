@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto.aesgcm;
+
+import com.thebuildingblocks.derec.crypto.random.DrbgPool;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.thebuildingblocks.derec.crypto.aesgcm.Crypto.IV_LENGTH_BYTE;
+
+/**
+ * GCM nonces for one key, a random 8 byte prefix followed by a 4 byte message counter, so that nonces are unique
+ * without drawing randomness per message and without locking. The prefix is random rather than fixed because
+ * both ends of a pairing encrypt with the same key.
+ * <p>
+ * After {@code limit} nonces the key must be replaced, the rekey callback is run once when the last is handed out
+ * and any further request fails.
+ */
+public final class NonceSequence {
+    public static final int PREFIX_LENGTH = IV_LENGTH_BYTE - Integer.BYTES;
+    // all the values of the counter
+    public static final long MAX_LIMIT = 1L << 32;
+
+    private final long prefix;
+    private final AtomicLong counter = new AtomicLong();
+    private final long limit;
+    private final Runnable rekey;
+    private final AtomicBoolean rekeyed = new AtomicBoolean();
+
+    /**
+     * A sequence of the maximum length
+     * @param rekey called once when the last nonce has been handed out
+     */
+    public NonceSequence(Runnable rekey) {
+        this(MAX_LIMIT, rekey);
+    }
+
+    /**
+     * @param limit the number of nonces, at most {@link #MAX_LIMIT}
+     * @param rekey called once when the last nonce has been handed out
+     */
+    public NonceSequence(long limit, Runnable rekey) {
+        if (limit < 1 || limit > MAX_LIMIT) {
+            throw new IllegalArgumentException("Limit must be between 1 and " + MAX_LIMIT);
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(PREFIX_LENGTH);
+        DrbgPool.DEFAULT.nextBytes(bytes);
+        this.prefix = bytes.getLong(0);
+        this.limit = limit;
+        this.rekey = rekey;
+    }
+
+    /**
+     * Write the next nonce at the position of a buffer, advancing it
+     * @param out a buffer with at least {@link Crypto#IV_LENGTH_BYTE} remaining
+     * @throws IllegalStateException if the sequence is exhausted
+     */
+    public void next(ByteBuffer out) {
+        long count = counter.getAndIncrement();
+        if (count >= limit) {
+            throw new IllegalStateException("Nonce sequence exhausted, the key must be replaced");
+        }
+        out.putLong(prefix).putInt((int) count);
+        if (count == limit - 1 && rekeyed.compareAndSet(false, true)) {
+            rekey.run();
+        }
+    }
+
+    /**
+     * @return the next nonce
+     * @throws IllegalStateException if the sequence is exhausted
+     */
+    public byte[] next() {
+        byte[] nonce = new byte[IV_LENGTH_BYTE];
+        next(ByteBuffer.wrap(nonce));
+        return nonce;
+    }
+
+    /**
+     * @return the number of nonces handed out
+     */
+    public long used() {
+        return Math.min(counter.get(), limit);
+    }
+
+    public long limit() {
+        return limit;
+    }
+
+    public boolean isExhausted() {
+        return counter.get() >= limit;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto.aesgcm;
+
+import com.thebuildingblocks.derec.crypto.provider.ProviderPolicy;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per thread instances of JCA primitives, by algorithm. Looking up a provider and setting up an instance costs more
+ * than encrypting a small message, and the instances are not thread safe, so each thread keeps its own and
+ * reinitialises it for each use.
+ * <p>
+ * Instances come from the provider {@link ProviderPolicy#DEFAULT} chooses, for the algorithms it covers.
+ */
+final class Primitives {
+    private static final ThreadLocal<Primitives> LOCAL = ThreadLocal.withInitial(Primitives::new);
+
+    private final Map<String, Cipher> ciphers = new HashMap<>();
+    private final Map<String, KeyAgreement> keyAgreements = new HashMap<>();
+    private final Map<String, KeyFactory> keyFactories = new HashMap<>();
+    private final Map<String, Mac> macs = new HashMap<>();
+    private final Map<String, MessageDigest> digests = new HashMap<>();
+
+    private Primitives() {
+    }
+
+    @FunctionalInterface
+    private interface Factory<T> {
+        T getInstance(String algorithm) throws GeneralSecurityException;
+    }
+
+    @FunctionalInterface
+    private interface ProviderFactory<T> {
+        T getInstance(String algorithm, Provider provider) throws GeneralSecurityException;
+    }
+
+    private static <T> T get(Map<String, T> instances, String type, String algorithm, Factory<T> factory,
+                             ProviderFactory<T> providerFactory) {
+        T instance = instances.get(algorithm);
+        if (instance == null) {
+            try {
+                Provider provider = ProviderPolicy.DEFAULT.provider(type, algorithm);
+                instance = provider == null ? factory.getInstance(algorithm)
+                        : providerFactory.getInstance(algorithm, provider);
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException(e);
+            }
+            instances.put(algorithm, instance);
+        }
+        return instance;
+    }
+
+    /**
+     * @param algorithm a transformation
+     * @return this thread's Cipher for it, to be initialised before use
+     */
+    static Cipher cipher(String algorithm) {
+        return get(LOCAL.get().ciphers, "Cipher", algorithm, Cipher::getInstance, Cipher::getInstance);
+    }
+
+    /**
+     * @param algorithm a key agreement algorithm
+     * @return this thread's KeyAgreement for it, to be initialised before use
+     */
+    static KeyAgreement keyAgreement(String algorithm) {
+        return get(LOCAL.get().keyAgreements, "KeyAgreement", algorithm, KeyAgreement::getInstance,
+                KeyAgreement::getInstance);
+    }
+
+    /**
+     * @param algorithm a key algorithm
+     * @return this thread's KeyFactory for it
+     */
+    static KeyFactory keyFactory(String algorithm) {
+        return get(LOCAL.get().keyFactories, "KeyFactory", algorithm, KeyFactory::getInstance,
+                KeyFactory::getInstance);
+    }
+
+    /**
+     * @param algorithm a MAC algorithm
+     * @return this thread's Mac for it, to be initialised before use
+     */
+    static Mac mac(String algorithm) {
+        return get(LOCAL.get().macs, "Mac", algorithm, Mac::getInstance, Mac::getInstance);
+    }
+
+    /**
+     * @param algorithm a digest algorithm
+     * @return this thread's MessageDigest for it, reset
+     */
+    static MessageDigest digest(String algorithm) {
+        MessageDigest digest = get(LOCAL.get().digests, "MessageDigest", algorithm, MessageDigest::getInstance,
+                MessageDigest::getInstance);
+        digest.reset();
+        return digest;
+    }
+}
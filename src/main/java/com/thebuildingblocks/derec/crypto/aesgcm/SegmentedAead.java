@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto.aesgcm;
+
+import com.thebuildingblocks.derec.crypto.random.DrbgPool;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import static com.thebuildingblocks.derec.crypto.aesgcm.Crypto.*;
+
+/**
+ * AES-GCM over a stream, in segments, so that memory is one segment whatever the length of the payload and
+ * decryption releases each segment as soon as its tag is checked, before the rest has arrived.
+ * <p>
+ * The stream is a header, a 4 byte segment size and a random 7 byte nonce prefix, followed by segments of that
+ * many bytes of plain text each encrypted with its own tag. The nonce of a segment is the prefix, a 4 byte
+ * segment counter and a byte that is 1 for the final segment and 0 otherwise, and the header is authenticated as
+ * associated data of every segment. Reordering, dropping, repeating or truncating segments therefore fails
+ * authentication. The final segment is empty only when the payload is.
+ * <p>
+ * The wrappers are for blocking channels and streams, and are not thread safe.
+ */
+public class SegmentedAead {
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+    public static final int MAX_SEGMENT_SIZE = 1 << 24;
+    public static final int NONCE_PREFIX_LENGTH = 7;
+    public static final int HEADER_LENGTH = Integer.BYTES + NONCE_PREFIX_LENGTH;
+    // the counter is 4 bytes of the nonce
+    public static final long MAX_SEGMENTS = 0xffffffffL;
+
+    private final SecretKey key;
+    private final int segmentSize;
+
+    public SegmentedAead(SecretKey key) {
+        this(key, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param key the key
+     * @param segmentSize bytes of plain text per segment when encrypting, decryption uses the size in the header
+     */
+    public SegmentedAead(SecretKey key, int segmentSize) {
+        checkSegmentSize(segmentSize);
+        this.key = key;
+        this.segmentSize = segmentSize;
+    }
+
+    private static void checkSegmentSize(int segmentSize) {
+        if (segmentSize < 1 || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size must be between 1 and " + MAX_SEGMENT_SIZE);
+        }
+    }
+
+    /**
+     * @param plainTextLength length of a payload
+     * @param segmentSize bytes of plain text per segment
+     * @return length of the encrypted stream
+     */
+    public static long encryptedLength(long plainTextLength, int segmentSize) {
+        // the final segment is full when the length is a multiple of the segment size, empty only for no payload
+        long segments = Math.max(1, (plainTextLength + segmentSize - 1) / segmentSize);
+        return HEADER_LENGTH + plainTextLength + segments * TAG_LENGTH_BYTE;
+    }
+
+    /**
+     * @param out where to write the encrypted stream, closed when the returned channel is closed
+     * @return a channel to write the plain text to, which must be closed to write the final segment
+     */
+    public WritableByteChannel encrypt(WritableByteChannel out) {
+        return new EncryptingChannel(out);
+    }
+
+    /**
+     * @param in the encrypted stream, closed when the returned channel is closed
+     * @return a channel to read the plain text from, read fails with an IOException if authentication fails
+     */
+    public ReadableByteChannel decrypt(ReadableByteChannel in) {
+        return new DecryptingChannel(in);
+    }
+
+    public OutputStream encrypt(OutputStream out) {
+        return Channels.newOutputStream(encrypt(Channels.newChannel(out)));
+    }
+
+    public InputStream decrypt(InputStream in) {
+        return Channels.newInputStream(decrypt(Channels.newChannel(in)));
+    }
+
+    /**
+     * Nonces and associated data for one stream
+     */
+    private final class Segments {
+        final byte[] header;
+        final byte[] nonce = new byte[IV_LENGTH_BYTE];
+        long counter;
+
+        Segments(byte[] header) {
+            this.header = header;
+            System.arraycopy(header, Integer.BYTES, nonce, 0, NONCE_PREFIX_LENGTH);
+        }
+
+        /**
+         * Encrypt or decrypt the next segment
+         * @return bytes written to out
+         */
+        int process(int mode, byte[] in, int inLength, byte[] out, boolean last) throws GeneralSecurityException {
+            if (counter > MAX_SEGMENTS) {
+                throw new IllegalStateException("Too many segments");
+            }
+            ByteBuffer.wrap(nonce).putInt(NONCE_PREFIX_LENGTH, (int) counter).put(IV_LENGTH_BYTE - 1, (byte) (last ? 1 : 0));
+            Cipher cipher = Primitives.cipher(ENCRYPT_ALGO);
+            cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH_BIT, nonce));
+            cipher.updateAAD(header);
+            int length = cipher.doFinal(in, 0, inLength, out, 0);
+            counter++;
+            return length;
+        }
+    }
+
+    private final class EncryptingChannel implements WritableByteChannel {
+        private final WritableByteChannel out;
+        private final Segments segments;
+        private final ByteBuffer plainText;
+        private final byte[] cipherText;
+        private boolean open = true;
+
+        EncryptingChannel(WritableByteChannel out) {
+            this.out = out;
+            byte[] header = new byte[HEADER_LENGTH];
+            ByteBuffer.wrap(header).putInt(segmentSize);
+            DrbgPool.DEFAULT.nextBytes(header, Integer.BYTES, NONCE_PREFIX_LENGTH);
+            this.segments = new Segments(header);
+            this.plainText = ByteBuffer.allocate(segmentSize);
+            this.cipherText = new byte[segmentSize + TAG_LENGTH_BYTE];
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            int written = src.remaining();
+            while (src.hasRemaining()) {
+                // a full segment is only written once more arrives, it is the final one otherwise
+                if (!plainText.hasRemaining()) {
+                    writeSegment(false);
+                }
+                int length = Math.min(src.remaining(), plainText.remaining());
+                plainText.put(plainText.position(), src, src.position(), length);
+                plainText.position(plainText.position() + length);
+                src.position(src.position() + length);
+            }
+            return written;
+        }
+
+        private void writeSegment(boolean last) throws IOException {
+            if (segments.counter == 0) {
+                writeFully(out, ByteBuffer.wrap(segments.header));
+            }
+            try {
+                int length = segments.process(Cipher.ENCRYPT_MODE, plainText.array(), plainText.position(),
+                        cipherText, last);
+                writeFully(out, ByteBuffer.wrap(cipherText, 0, length));
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException(e);
+            }
+            Arrays.fill(plainText.array(), (byte) 0);
+            plainText.clear();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (open) {
+                open = false;
+                try {
+                    writeSegment(true);
+                } finally {
+                    out.close();
+                }
+            }
+        }
+    }
+
+    private final class DecryptingChannel implements ReadableByteChannel {
+        private final ReadableByteChannel in;
+        private Segments segments;
+        // a segment and one byte more, which shows whether it is the final one
+        private ByteBuffer cipherText;
+        private ByteBuffer plainText;
+        private boolean last;
+        private boolean open = true;
+
+        DecryptingChannel(ReadableByteChannel in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            if (segments == null) {
+                readHeader();
+            }
+            while (!plainText.hasRemaining()) {
+                if (last) {
+                    return -1;
+                }
+                readSegment();
+            }
+            int length = Math.min(dst.remaining(), plainText.remaining());
+            dst.put(dst.position(), plainText, plainText.position(), length);
+            dst.position(dst.position() + length);
+            plainText.position(plainText.position() + length);
+            return length;
+        }
+
+        private void readHeader() throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            if (readFully(in, header) < HEADER_LENGTH) {
+                throw new EOFException("Truncated header");
+            }
+            int size = header.getInt(0);
+            if (size < 1 || size > MAX_SEGMENT_SIZE) {
+                throw new IOException("Invalid segment size " + size);
+            }
+            segments = new Segments(header.array());
+            cipherText = ByteBuffer.allocate(size + TAG_LENGTH_BYTE + 1);
+            plainText = ByteBuffer.allocate(size).limit(0);
+        }
+
+        private void readSegment() throws IOException {
+            readFully(in, cipherText);
+            int length = cipherText.position();
+            last = length < cipherText.capacity();
+            if (!last) {
+                length--;
+            }
+            if (length < TAG_LENGTH_BYTE) {
+                throw new EOFException("Truncated segment " + segments.counter);
+            }
+            try {
+                plainText.clear();
+                int plainLength = segments.process(Cipher.DECRYPT_MODE, cipherText.array(), length,
+                        plainText.array(), last);
+                plainText.limit(plainLength);
+            } catch (AEADBadTagException e) {
+                throw new IOException("Segment " + segments.counter + " failed authentication", e);
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException(e);
+            }
+            // keep the lookahead byte for the next segment
+            cipherText.flip().position(length);
+            cipherText.compact();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (open) {
+                open = false;
+                if (plainText != null) {
+                    Arrays.fill(plainText.array(), (byte) 0);
+                }
+                in.close();
+            }
+        }
+    }
+
+    private static int readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
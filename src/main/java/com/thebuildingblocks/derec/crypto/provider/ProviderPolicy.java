@@ -0,0 +1,421 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto.provider;
+
+import com.thebuildingblocks.derec.crypto.random.DrbgPool;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.security.Security;
+import java.security.Signature;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Chooses the JCA provider for each of a few primitives whose speed differs a lot between providers, e.g. AES-GCM
+ * where SunJCE uses AES-NI and CLMUL intrinsics and Bouncy Castle is pure Java, or ECDH where Bouncy Castle is
+ * faster than SunEC on Java 17 in {@code ProviderBenchmark}.
+ * <p>
+ * A choice comes from the system property {@code derec.provider.<primitive>}, e.g.
+ * {@code -Dderec.provider.ecdh=BC}, from {@link #set}, or otherwise is the JDK provider, or if that is not installed
+ * the first installed provider that implements the primitive. Setting the system property {@code BC} chooses Bouncy
+ * Castle for all of them.
+ * <p>
+ * {@link #calibrate()} instead chooses by timing every installed provider that implements each primitive not
+ * configured, and is meant to be called at startup, as is done on construction with
+ * {@code -Dderec.provider.calibrate}. That costs up to a second per provider and, as intrinsics only take effect
+ * once the JIT has compiled their callers, may favour a pure Java provider on a machine with few cores to compile
+ * on. Asking for a provider never times anything.
+ * <p>
+ * Algorithms the policy does not cover are left to the JCA provider order.
+ */
+public class ProviderPolicy {
+    static Logger logger = LoggerFactory.getLogger(ProviderPolicy.class);
+
+    static final String PROPERTY_PREFIX = "derec.provider.";
+    static final String CALIBRATE_PROPERTY = PROPERTY_PREFIX + "calibrate";
+
+    /**
+     * Each candidate is run in windows of this long, until the best time in a window has not improved by more than
+     * {@link #IMPROVEMENT} for {@link #STABLE_WINDOWS} windows, i.e. until the JIT has finished with it, or for at
+     * most {@link #MAX_CALIBRATION_NANOS}. Timing any sooner favours pure Java providers over JDK intrinsics.
+     */
+    static final long WINDOW_NANOS = 10_000_000L;
+    static final double IMPROVEMENT = 0.95;
+    static final int STABLE_WINDOWS = 5;
+    static final long MAX_CALIBRATION_NANOS = 1_000_000_000L;
+
+    private static final Provider BOUNCY_CASTLE;
+
+    static {
+        // the one place Bouncy Castle is registered, after the JDK providers so it is not the default by accident
+        Provider installed = Security.getProvider(BouncyCastleProvider.PROVIDER_NAME);
+        if (installed == null) {
+            installed = new BouncyCastleProvider();
+            Security.addProvider(installed);
+        }
+        BOUNCY_CASTLE = installed;
+    }
+
+    public static final ProviderPolicy DEFAULT = new ProviderPolicy();
+
+    /**
+     * One step of a primitive on fixed inputs, for timing
+     */
+    @FunctionalInterface
+    public interface Operation {
+        void run() throws GeneralSecurityException;
+    }
+
+    /**
+     * The primitives chosen for, each with the JCA service type and algorithm it covers
+     */
+    public enum Primitive {
+        AES_GCM("Cipher", "AES/GCM/NoPadding", "SunJCE") {
+            @Override
+            public Operation operation(Provider provider) throws GeneralSecurityException {
+                Cipher cipher = Cipher.getInstance(algorithm, provider);
+                SecretKey key = new SecretKeySpec(random(32), "AES");
+                byte[] iv = random(12);
+                byte[] plainText = random(1024);
+                ByteBuffer counter = ByteBuffer.wrap(iv);
+                return () -> {
+                    // GCM refuses to encrypt twice with one key and iv
+                    counter.putLong(iv.length - Long.BYTES, counter.getLong(iv.length - Long.BYTES) + 1);
+                    cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, iv));
+                    cipher.doFinal(plainText);
+                };
+            }
+        },
+        ECDH("KeyAgreement", "ECDH", "SunEC") {
+            @Override
+            public Operation operation(Provider provider) throws GeneralSecurityException {
+                KeyAgreement keyAgreement = KeyAgreement.getInstance(algorithm, provider);
+                KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+                generator.initialize(256);
+                KeyPair ours = generator.generateKeyPair();
+                KeyPair theirs = generator.generateKeyPair();
+                return () -> {
+                    keyAgreement.init(ours.getPrivate());
+                    keyAgreement.doPhase(theirs.getPublic(), true);
+                    keyAgreement.generateSecret();
+                };
+            }
+        },
+        RSA("Cipher", "RSA/ECB/PKCS1Padding", "SunJCE") {
+            @Override
+            public Operation operation(Provider provider) throws GeneralSecurityException {
+                Cipher cipher = Cipher.getInstance(algorithm, provider);
+                KeyPair keyPair = rsaKeyPair();
+                Cipher encrypt = Cipher.getInstance(algorithm);
+                encrypt.init(Cipher.ENCRYPT_MODE, keyPair.getPublic());
+                byte[] cipherText = encrypt.doFinal(random(32));
+                // the private key operation, as in unwrapping a content key
+                return () -> {
+                    cipher.init(Cipher.DECRYPT_MODE, keyPair.getPrivate());
+                    cipher.doFinal(cipherText);
+                };
+            }
+        },
+        SHA256_SIGNATURE("Signature", "SHA256withRSA", "SunRsaSign") {
+            @Override
+            public Operation operation(Provider provider) throws GeneralSecurityException {
+                Signature signature = Signature.getInstance(algorithm, provider);
+                KeyPair keyPair = rsaKeyPair();
+                byte[] data = random(1024);
+                return () -> {
+                    signature.initSign(keyPair.getPrivate());
+                    signature.update(data);
+                    signature.sign();
+                };
+            }
+        },
+        SHA_256("MessageDigest", "SHA-256", "SUN") {
+            @Override
+            public Operation operation(Provider provider) throws GeneralSecurityException {
+                MessageDigest digest = MessageDigest.getInstance(algorithm, provider);
+                byte[] data = random(1024);
+                return () -> digest.digest(data);
+            }
+        };
+
+        public final String type;
+        public final String algorithm;
+        /**
+         * The JDK provider, used unless configured otherwise
+         */
+        public final String preferred;
+
+        Primitive(String type, String algorithm, String preferred) {
+            this.type = type;
+            this.algorithm = algorithm;
+            this.preferred = preferred;
+        }
+
+        /**
+         * Set up the primitive with a provider on fresh inputs
+         * @param provider the provider
+         * @return an operation to time
+         * @throws GeneralSecurityException if the provider does not implement the primitive
+         */
+        public abstract Operation operation(Provider provider) throws GeneralSecurityException;
+
+        /**
+         * @param provider a provider
+         * @return true if it has the service, without setting up the primitive
+         */
+        public boolean implementedBy(Provider provider) {
+            // a Cipher is registered under its algorithm, the mode and padding being attributes of the service
+            String service = type.equals("Cipher") ? algorithm.substring(0, algorithm.indexOf('/')) : algorithm;
+            return provider.getService(type, service) != null;
+        }
+
+        /**
+         * @return the name used in the system property, e.g. "aes-gcm"
+         */
+        public String propertyName() {
+            return name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+
+        /**
+         * @param type a JCA service type e.g. "Cipher"
+         * @param algorithm an algorithm or transformation, case insensitive as in JCA
+         * @return the primitive covering it, or null if none does
+         */
+        public static Primitive of(String type, String algorithm) {
+            for (Primitive primitive : values()) {
+                if (primitive.type.equalsIgnoreCase(type) && primitive.algorithm.equalsIgnoreCase(algorithm)) {
+                    return primitive;
+                }
+            }
+            return null;
+        }
+
+        private static byte[] random(int length) {
+            byte[] bytes = new byte[length];
+            DrbgPool.DEFAULT.nextBytes(bytes);
+            return bytes;
+        }
+
+        private static KeyPair rsaKeyPair() throws GeneralSecurityException {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            return generator.generateKeyPair();
+        }
+    }
+
+    /**
+     * The provider chosen for a primitive
+     * @param provider the provider's name
+     * @param nanos the best time of each candidate calibrated, empty if configured or preferred
+     */
+    public record Choice(String provider, Map<String, Long> nanos) {
+    }
+
+    private final ConcurrentMap<Primitive, Choice> choices = new ConcurrentHashMap<>();
+    // primitives whose provider was named, which calibrate() leaves alone
+    private final Set<Primitive> configured = ConcurrentHashMap.newKeySet();
+
+    /**
+     * A policy configured from the system properties
+     */
+    public ProviderPolicy() {
+        this(System.getProperty(CALIBRATE_PROPERTY) != null);
+    }
+
+    /**
+     * A policy configured from the system properties
+     * @param calibrate whether to {@link #calibrate()} now, rather than use the JDK providers for the primitives not
+     *                  configured
+     */
+    public ProviderPolicy(boolean calibrate) {
+        boolean bouncyCastle = System.getProperty("BC") != null;
+        for (Primitive primitive : Primitive.values()) {
+            String name = System.getProperty(PROPERTY_PREFIX + primitive.propertyName());
+            if (name == null && bouncyCastle) {
+                name = BOUNCY_CASTLE.getName();
+            }
+            if (name != null) {
+                set(primitive, name);
+            }
+        }
+        if (calibrate) {
+            calibrate();
+        }
+    }
+
+    /**
+     * @return the Bouncy Castle provider, registered with the JCA, for what only it implements e.g. the CMS key
+     * agreement KDFs
+     */
+    public static Provider bouncyCastle() {
+        return BOUNCY_CASTLE;
+    }
+
+    /**
+     * @param primitive a primitive
+     * @return the provider to use for it, the default if not configured or calibrated
+     */
+    public Provider provider(Primitive primitive) {
+        return Security.getProvider(choices.computeIfAbsent(primitive, this::choose).provider());
+    }
+
+    /**
+     * @param type a JCA service type e.g. "Cipher"
+     * @param algorithm an algorithm or transformation
+     * @return the provider to use for it, or null if the policy does not cover it and it is left to the JCA
+     */
+    public Provider provider(String type, String algorithm) {
+        Primitive primitive = Primitive.of(type, algorithm);
+        return primitive == null ? null : provider(primitive);
+    }
+
+    /**
+     * Choose a provider, replacing any earlier choice
+     * @param primitive a primitive
+     * @param name the name of an installed provider
+     * @throws IllegalArgumentException if there is no such provider or it does not implement the primitive
+     */
+    public void set(Primitive primitive, String name) {
+        Provider provider = Security.getProvider(name);
+        if (provider == null) {
+            throw new IllegalArgumentException("No provider " + name + " installed");
+        }
+        if (!primitive.implementedBy(provider)) {
+            throw new IllegalArgumentException("Provider " + name + " does not implement " + primitive.algorithm);
+        }
+        choices.put(primitive, new Choice(name, Map.of()));
+        configured.add(primitive);
+    }
+
+    /**
+     * @return the choices made so far, for diagnostics
+     */
+    public Map<Primitive, Choice> choices() {
+        return Collections.unmodifiableMap(new EnumMap<>(choices));
+    }
+
+    /**
+     * Choose by timing for every primitive not configured, for use at startup
+     */
+    public void calibrate() {
+        for (Primitive primitive : Primitive.values()) {
+            if (!configured.contains(primitive)) {
+                calibrate(primitive);
+            }
+        }
+    }
+
+    /**
+     * Choose by timing, replacing any earlier choice
+     * @param primitive a primitive
+     * @return the choice, with the time for each provider
+     */
+    public Choice calibrate(Primitive primitive) {
+        Choice choice = time(primitive);
+        choices.put(primitive, choice);
+        configured.remove(primitive);
+        return choice;
+    }
+
+    /**
+     * The preferred provider, or the first installed that implements the primitive, without timing
+     */
+    private Choice choose(Primitive primitive) {
+        Provider preferred = Security.getProvider(primitive.preferred);
+        if (preferred != null && primitive.implementedBy(preferred)) {
+            return new Choice(preferred.getName(), Map.of());
+        }
+        for (Provider provider : Security.getProviders()) {
+            if (primitive.implementedBy(provider)) {
+                logger.info("Provider for {} is {}, {} is not installed", primitive, provider.getName(),
+                        primitive.preferred);
+                return new Choice(provider.getName(), Map.of());
+            }
+        }
+        throw new IllegalStateException("No provider implements " + primitive.algorithm);
+    }
+
+    /**
+     * Time the primitive with every installed provider that implements it
+     */
+    private Choice time(Primitive primitive) {
+        Map<String, Long> nanos = new LinkedHashMap<>();
+        for (Provider provider : Security.getProviders()) {
+            Operation operation;
+            try {
+                operation = primitive.operation(provider);
+            } catch (GeneralSecurityException e) {
+                continue;
+            }
+            try {
+                nanos.put(provider.getName(), bestTime(operation));
+            } catch (GeneralSecurityException | RuntimeException e) {
+                logger.debug("Provider {} failed {}", provider.getName(), primitive, e);
+            }
+        }
+        if (nanos.isEmpty()) {
+            throw new IllegalStateException("No provider implements " + primitive.algorithm);
+        }
+        String best = Collections.min(nanos.entrySet(), Map.Entry.comparingByValue()).getKey();
+        logger.info("Provider for {} is {}, calibrated {}", primitive, best, nanos);
+        return new Choice(best, Collections.unmodifiableMap(nanos));
+    }
+
+    private static long bestTime(Operation operation) throws GeneralSecurityException {
+        long deadline = System.nanoTime() + MAX_CALIBRATION_NANOS;
+        long best = Long.MAX_VALUE;
+        int stable = 0;
+        while (stable < STABLE_WINDOWS && System.nanoTime() < deadline) {
+            long windowEnd = System.nanoTime() + WINDOW_NANOS;
+            long windowBest = Long.MAX_VALUE;
+            long end;
+            do {
+                long start = System.nanoTime();
+                operation.run();
+                end = System.nanoTime();
+                windowBest = Math.min(windowBest, end - start);
+            } while (end < windowEnd);
+            if (windowBest < best * IMPROVEMENT) {
+                stable = 0;
+            } else {
+                stable++;
+            }
+            best = Math.min(best, windowBest);
+        }
+        return best;
+    }
+}
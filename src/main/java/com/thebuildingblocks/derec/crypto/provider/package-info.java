@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Choice of JCA provider for each primitive
+ * <p>
+ * {@link com.thebuildingblocks.derec.crypto.provider.ProviderPolicy} registers Bouncy Castle once and picks, per
+ * primitive, the provider configured, the fastest by a calibration run at startup or otherwise the JDK provider, so
+ * that classes no longer register providers of their own or name one in code.
+ */
+package com.thebuildingblocks.derec.crypto.provider;
@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto.random;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.DrbgParameters;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.SecureRandomSpi;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A DRBG per thread, each seeded independently from the system entropy source and personalised with its thread,
+ * so that concurrent callers never share generator state or a lock.
+ * <p>
+ * Requests smaller than the buffer are served from a per-thread buffer refilled with one DRBG call, bytes are
+ * zeroed in the buffer as they are handed out. Larger requests go straight to the DRBG.
+ */
+public final class DrbgPool {
+    public static final int DEFAULT_BUFFER_SIZE = 4096;
+    public static final int SECURITY_STRENGTH = 256;
+
+    /**
+     * The pool used by default for Shamir coefficients, keys and IVs
+     */
+    public static final DrbgPool DEFAULT = new DrbgPool(DEFAULT_BUFFER_SIZE, ReseedPolicy.DEFAULT);
+
+    /**
+     * Counts since the pool was created, summed over threads
+     * @param generators number of per thread generators instantiated
+     * @param refills number of times a buffer was refilled
+     * @param reseeds number of reseeds requested by the policy
+     * @param bytes number of bytes taken from the DRBGs
+     */
+    public record Stats(long generators, long refills, long reseeds, long bytes) {
+    }
+
+    private final int bufferSize;
+    private final ReseedPolicy reseedPolicy;
+    private final ThreadLocal<Generator> generators = ThreadLocal.withInitial(this::newGenerator);
+    private final SecureRandom secureRandom = new PooledSecureRandom(this);
+
+    private final LongAdder generatorCount = new LongAdder();
+    private final LongAdder refills = new LongAdder();
+    private final LongAdder reseeds = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    /**
+     * @param bufferSize size of each thread's prefetch buffer, 0 for none
+     * @param reseedPolicy when to reseed
+     */
+    public DrbgPool(int bufferSize, ReseedPolicy reseedPolicy) {
+        if (bufferSize < 0) {
+            throw new IllegalArgumentException("Negative buffer size");
+        }
+        this.bufferSize = bufferSize;
+        this.reseedPolicy = reseedPolicy;
+    }
+
+    /**
+     * Fill an array with random bytes from the calling thread's generator
+     * @param bytes the array
+     */
+    public void nextBytes(byte[] bytes) {
+        generators.get().nextBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Fill part of an array with random bytes from the calling thread's generator
+     * @param bytes the array
+     * @param offset where to start
+     * @param length how many bytes
+     */
+    public void nextBytes(byte[] bytes, int offset, int length) {
+        Objects.checkFromIndexSize(offset, length, bytes.length);
+        generators.get().nextBytes(bytes, offset, length);
+    }
+
+    /**
+     * Fill the remaining bytes of a buffer with random bytes, advancing its position
+     * @param buffer the buffer
+     */
+    public void nextBytes(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            nextBytes(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+        } else {
+            byte[] bytes = new byte[buffer.remaining()];
+            nextBytes(bytes);
+            buffer.put(bytes);
+            Arrays.fill(bytes, (byte) 0);
+        }
+    }
+
+    /**
+     * @return a SecureRandom that draws from this pool, safe to share between threads without contention
+     */
+    public SecureRandom secureRandom() {
+        return secureRandom;
+    }
+
+    public Stats stats() {
+        return new Stats(generatorCount.sum(), refills.sum(), reseeds.sum(), bytes.sum());
+    }
+
+    private Generator newGenerator() {
+        Thread thread = Thread.currentThread();
+        byte[] personalization = ("derec-" + thread.getId() + "-" + thread.getName() + "-" + System.nanoTime())
+                .getBytes(StandardCharsets.UTF_8);
+        try {
+            SecureRandom drbg = SecureRandom.getInstance("DRBG", DrbgParameters.instantiation(SECURITY_STRENGTH,
+                    DrbgParameters.Capability.RESEED_ONLY, personalization));
+            generatorCount.increment();
+            return new Generator(drbg);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * One thread's DRBG and buffer, only ever used by that thread
+     */
+    private final class Generator {
+        final SecureRandom drbg;
+        final byte[] buffer = new byte[bufferSize];
+        // buffer[position..] has not been handed out
+        int position = bufferSize;
+        long bytesSinceReseed;
+        long reseededAt = System.nanoTime();
+
+        Generator(SecureRandom drbg) {
+            this.drbg = drbg;
+        }
+
+        void nextBytes(byte[] bytes, int offset, int length) {
+            if (length >= bufferSize && offset == 0 && length == bytes.length) {
+                generate(bytes);
+                return;
+            }
+            while (length > 0) {
+                if (position == bufferSize) {
+                    if (length >= bufferSize) {
+                        // don't churn the buffer for a large request into the middle of an array
+                        byte[] direct = new byte[length];
+                        generate(direct);
+                        System.arraycopy(direct, 0, bytes, offset, length);
+                        Arrays.fill(direct, (byte) 0);
+                        return;
+                    }
+                    generate(buffer);
+                    refills.increment();
+                    position = 0;
+                }
+                int n = Math.min(length, bufferSize - position);
+                System.arraycopy(buffer, position, bytes, offset, n);
+                Arrays.fill(buffer, position, position + n, (byte) 0);
+                position += n;
+                offset += n;
+                length -= n;
+            }
+        }
+
+        void generate(byte[] into) {
+            long now = System.nanoTime();
+            if (reseedPolicy.shouldReseed(bytesSinceReseed, now - reseededAt)) {
+                drbg.reseed();
+                reseeds.increment();
+                bytesSinceReseed = 0;
+                reseededAt = now;
+            }
+            drbg.nextBytes(into);
+            bytesSinceReseed += into.length;
+            bytes.add(into.length);
+        }
+    }
+
+    /**
+     * A SecureRandom view of the pool. Overriding {@link #nextBytes(byte[])} avoids the lock SecureRandom takes
+     * around an SPI it does not know to be thread safe.
+     */
+    @SuppressWarnings("serial")
+    private static final class PooledSecureRandom extends SecureRandom {
+        private final transient DrbgPool pool;
+
+        PooledSecureRandom(DrbgPool pool) {
+            super(new Spi(pool), null);
+            this.pool = pool;
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return "DRBG";
+        }
+
+        @Override
+        public void nextBytes(byte[] bytes) {
+            pool.nextBytes(bytes);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static final class Spi extends SecureRandomSpi {
+        private final transient DrbgPool pool;
+
+        Spi(DrbgPool pool) {
+            this.pool = pool;
+        }
+
+        /**
+         * Mixes the seed into the calling thread's generator only
+         */
+        @Override
+        protected void engineSetSeed(byte[] seed) {
+            pool.generators.get().drbg.setSeed(seed);
+        }
+
+        @Override
+        protected void engineNextBytes(byte[] bytes) {
+            pool.nextBytes(bytes);
+        }
+
+        @Override
+        protected byte[] engineGenerateSeed(int numBytes) {
+            return pool.generators.get().drbg.generateSeed(numBytes);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto.random;
+
+import java.time.Duration;
+
+/**
+ * Decides when a {@link DrbgPool} generator should reseed from the system entropy source, consulted before each
+ * request to the underlying DRBG
+ */
+@FunctionalInterface
+public interface ReseedPolicy {
+
+    /**
+     * Never reseed, relying on the DRBG's own reseed interval
+     */
+    ReseedPolicy NEVER = (bytesSinceReseed, nanosSinceReseed) -> false;
+
+    /**
+     * Reseed after a GiB of output or an hour, whichever comes first
+     */
+    ReseedPolicy DEFAULT = afterBytes(1L << 30).or(after(Duration.ofHours(1)));
+
+    /**
+     * @param bytesSinceReseed bytes generated since the generator was seeded
+     * @param nanosSinceReseed time since the generator was seeded
+     * @return true to reseed now
+     */
+    boolean shouldReseed(long bytesSinceReseed, long nanosSinceReseed);
+
+    /**
+     * @param limit number of bytes
+     * @return a policy that reseeds once that many bytes have been generated
+     */
+    static ReseedPolicy afterBytes(long limit) {
+        return (bytesSinceReseed, nanosSinceReseed) -> bytesSinceReseed >= limit;
+    }
+
+    /**
+     * @param interval a time
+     * @return a policy that reseeds once that much time has passed
+     */
+    static ReseedPolicy after(Duration interval) {
+        long nanos = interval.toNanos();
+        return (bytesSinceReseed, nanosSinceReseed) -> nanosSinceReseed >= nanos;
+    }
+
+    /**
+     * @param other another policy
+     * @return a policy that reseeds when either this or the other would
+     */
+    default ReseedPolicy or(ReseedPolicy other) {
+        return (bytesSinceReseed, nanosSinceReseed) -> shouldReseed(bytesSinceReseed, nanosSinceReseed) ||
+                other.shouldReseed(bytesSinceReseed, nanosSinceReseed);
+    }
+}
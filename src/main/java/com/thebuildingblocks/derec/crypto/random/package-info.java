@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Random number generation for coefficients, keys and IVs
+ * <p>
+ * {@link com.thebuildingblocks.derec.crypto.random.DrbgPool} gives each thread its own DRBG, so that threads do not
+ * contend for a single shared {@link java.security.SecureRandom}, and serves small requests such as IVs from a
+ * prefetched buffer.
+ */
+package com.thebuildingblocks.derec.crypto.random;
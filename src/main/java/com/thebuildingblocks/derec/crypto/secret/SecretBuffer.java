@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto.secret;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Secret bytes held off heap, from a {@link SecretBufferPool}. Closing zeroes the bytes and returns the memory to
+ * the pool, after which the buffer may not be used. Views returned by {@link #buffer()} must not be used after
+ * close either, they would see zeroes or another secret.
+ */
+public final class SecretBuffer implements AutoCloseable {
+    private final SecretBufferPool pool;
+    private final ByteBuffer storage;
+    private final int length;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    SecretBuffer(SecretBufferPool pool, ByteBuffer storage, int length) {
+        this.pool = pool;
+        this.storage = storage;
+        this.length = length;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return a read-write view of the bytes, position 0 and limit {@link #length()}
+     */
+    public ByteBuffer buffer() {
+        checkOpen();
+        return storage.slice(0, length);
+    }
+
+    public byte get(int index) {
+        checkOpen();
+        return storage.get(Objects.checkIndex(index, length));
+    }
+
+    public void put(int index, byte b) {
+        checkOpen();
+        storage.put(Objects.checkIndex(index, length), b);
+    }
+
+    /**
+     * Copy bytes in
+     * @param index where to start in this buffer
+     * @param src the bytes
+     * @param offset where to start in the bytes
+     * @param count how many
+     */
+    public void put(int index, byte[] src, int offset, int count) {
+        checkOpen();
+        Objects.checkFromIndexSize(index, count, length);
+        storage.put(index, src, offset, count);
+    }
+
+    /**
+     * Copy the bytes onto the heap, for APIs that can only take an array. The caller should zero the copy when done.
+     * @return a copy
+     */
+    public byte[] toByteArray() {
+        checkOpen();
+        byte[] bytes = new byte[length];
+        storage.get(0, bytes);
+        return bytes;
+    }
+
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Zero the bytes and return the memory to the pool, subsequent calls do nothing
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            pool.release(storage, length);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed.get()) {
+            throw new IllegalStateException("Secret buffer has been closed");
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto.secret;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Direct memory for {@link SecretBuffer}s, in power of two size classes. Memory is zeroed when a buffer is
+ * released and kept for reuse up to a limit, larger buffers and any beyond the limit are zeroed and left to the
+ * garbage collector to free.
+ */
+public final class SecretBufferPool {
+    public static final int MIN_SIZE = 64;
+    public static final int DEFAULT_MAX_POOLED_SIZE = 1 << 20;
+    public static final long DEFAULT_MAX_POOLED_BYTES = 64L << 20;
+
+    public static final SecretBufferPool DEFAULT =
+            new SecretBufferPool(DEFAULT_MAX_POOLED_SIZE, DEFAULT_MAX_POOLED_BYTES);
+
+    private static final ByteBuffer ZEROS = ByteBuffer.allocateDirect(4096).asReadOnlyBuffer();
+
+    /**
+     * Counts since the pool was created
+     * @param allocations buffers allocated from the system
+     * @param reuses buffers reused from the pool
+     * @param releases buffers zeroed and released
+     * @param pooledBytes bytes currently held for reuse
+     */
+    public record Stats(long allocations, long reuses, long releases, long pooledBytes) {
+    }
+
+    private final int maxPooledSize;
+    private final long maxPooledBytes;
+    private final Queue<ByteBuffer>[] free;
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final LongAdder allocations = new LongAdder();
+    private final LongAdder reuses = new LongAdder();
+    private final LongAdder releases = new LongAdder();
+
+    /**
+     * @param maxPooledSize the largest buffer kept for reuse, rounded up to a power of two
+     * @param maxPooledBytes the most memory kept for reuse
+     */
+    @SuppressWarnings("unchecked")
+    public SecretBufferPool(int maxPooledSize, long maxPooledBytes) {
+        if (maxPooledSize < MIN_SIZE || maxPooledSize > 1 << 30) {
+            throw new IllegalArgumentException("Max pooled size must be between " + MIN_SIZE + " and 2^30");
+        }
+        this.maxPooledSize = sizeClass(maxPooledSize);
+        this.maxPooledBytes = maxPooledBytes;
+        this.free = (Queue<ByteBuffer>[]) new Queue<?>[sizeClassIndex(this.maxPooledSize) + 1];
+        for (int i = 0; i < free.length; i++) {
+            free[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * @param length number of bytes
+     * @return a zeroed buffer
+     */
+    public SecretBuffer acquire(int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative length");
+        }
+        if (length > maxPooledSize) {
+            allocations.increment();
+            return new SecretBuffer(this, ByteBuffer.allocateDirect(length), length);
+        }
+        int size = sizeClass(length);
+        ByteBuffer storage = free[sizeClassIndex(size)].poll();
+        if (storage == null) {
+            allocations.increment();
+            storage = ByteBuffer.allocateDirect(size);
+        } else {
+            reuses.increment();
+            pooledBytes.addAndGet(-size);
+        }
+        return new SecretBuffer(this, storage, length);
+    }
+
+    /**
+     * Copy bytes off heap, the caller remains responsible for zeroing the original
+     * @param bytes the bytes
+     * @return a buffer holding a copy
+     */
+    public SecretBuffer copyOf(byte[] bytes) {
+        SecretBuffer buffer = acquire(bytes.length);
+        buffer.put(0, bytes, 0, bytes.length);
+        return buffer;
+    }
+
+    public Stats stats() {
+        return new Stats(allocations.sum(), reuses.sum(), releases.sum(), pooledBytes.get());
+    }
+
+    /**
+     * Zero the used part of a buffer, the rest is already zero, and keep it if there is room
+     */
+    void release(ByteBuffer storage, int length) {
+        zero(storage, length);
+        releases.increment();
+        int size = storage.capacity();
+        if (size > maxPooledSize) {
+            return;
+        }
+        if (pooledBytes.addAndGet(size) > maxPooledBytes) {
+            pooledBytes.addAndGet(-size);
+            return;
+        }
+        free[sizeClassIndex(size)].offer(storage);
+    }
+
+    static void zero(ByteBuffer storage, int length) {
+        for (int done = 0; done < length; done += ZEROS.capacity()) {
+            storage.put(done, ZEROS, 0, Math.min(ZEROS.capacity(), length - done));
+        }
+    }
+
+    static int sizeClass(int length) {
+        return Math.max(MIN_SIZE, Integer.highestOneBit(Math.max(1, length - 1)) << 1);
+    }
+
+    static int sizeClassIndex(int size) {
+        return Integer.numberOfTrailingZeros(size) - Integer.numberOfTrailingZeros(MIN_SIZE);
+    }
+}
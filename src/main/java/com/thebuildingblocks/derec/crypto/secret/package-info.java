@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Off heap storage for secrets and shares
+ * <p>
+ * Byte arrays on the heap are copied by the garbage collector, leaving stale copies of secret material that can
+ * never be wiped. {@link com.thebuildingblocks.derec.crypto.secret.SecretBuffer} holds its bytes in direct memory
+ * that does not move, and zeroes them when closed.
+ */
+package com.thebuildingblocks.derec.crypto.secret;
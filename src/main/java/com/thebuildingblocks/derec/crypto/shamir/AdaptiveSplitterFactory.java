@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto.shamir;
+
+import com.thebuildingblocks.derec.crypto.ShamirInterfaces.Splitter;
+import com.thebuildingblocks.derec.crypto.ShamirInterfaces.SplitterFactory;
+import com.thebuildingblocks.derec.crypto.random.DrbgPool;
+import com.thebuildingblocks.derec.crypto.secret.SecretBuffer;
+import com.thebuildingblocks.derec.crypto.secret.SecretBufferPool;
+import org.derecalliance.derec.api.DeRecSecret;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Chooses, per workload bucket of secret size, share count and threshold, the fastest of a set of splitter
+ * implementations. Choices come from a profile loaded with {@link #loadProfile} or from {@link #calibrate}, both to be
+ * run at startup so that no split or combine pays for timing. Buckets neither covers use the fallback splitter.
+ * <p>
+ * Shares from all the implementations are interchangeable, so the splitters this makes choose an implementation per
+ * call, from the length of the secret, and may combine with a different implementation from the one that split.
+ */
+public class AdaptiveSplitterFactory implements SplitterFactory {
+    static Logger logger = LoggerFactory.getLogger(AdaptiveSplitterFactory.class);
+
+    /**
+     * Upper bounds of the secret size classes
+     */
+    static final int[] SIZE_CLASSES = {64, 1024, 16 * 1024, 256 * 1024, 4 * 1024 * 1024, Integer.MAX_VALUE};
+    /**
+     * Upper bounds of the share count and threshold classes
+     */
+    static final int[] COUNT_CLASSES = {8, 32, 128, 255};
+
+    /**
+     * Calibration is run on secrets no bigger than this, time per byte being near constant above it
+     */
+    public static final int MAX_CALIBRATION_SIZE = 64 * 1024;
+    /**
+     * Candidates are first timed on a secret this size, those more than {@link #PROBE_CUTOFF} times slower than the
+     * best are not calibrated further
+     */
+    static final int PROBE_SIZE = 256;
+    static final int PROBE_CUTOFF = 4;
+    static final int WARMUP_RUNS = 3;
+    static final int MEASURED_RUNS = 5;
+
+    /**
+     * All the predefined splitters except the duplicate "gf256"
+     */
+    public static final AdaptiveSplitterFactory DEFAULT = new AdaptiveSplitterFactory(candidates());
+
+    /**
+     * Used for buckets that have been neither calibrated nor loaded from a profile, if a candidate
+     */
+    public static final String FALLBACK = "gf256-table";
+
+    /**
+     * How long a candidate takes to split and combine a secret, the best of a few runs
+     */
+    @FunctionalInterface
+    public interface Timing {
+        /**
+         * @param name the candidate's name
+         * @param factory the candidate
+         * @param size secret size
+         * @param count number of shares
+         * @param threshold recombination threshold
+         * @return nanoseconds
+         */
+        long nanos(String name, SplitterFactory factory, int size, int count, int threshold);
+    }
+
+    /**
+     * Times split and combine with {@link System#nanoTime()}
+     */
+    public static final Timing MEASURED = AdaptiveSplitterFactory::measure;
+
+    /**
+     * A workload bucket, each field being the upper bound of its class
+     * @param size secret size
+     * @param count number of shares
+     * @param threshold recombination threshold
+     */
+    public record Bucket(int size, int count, int threshold) implements Comparable<Bucket> {
+        private static final Comparator<Bucket> ORDER = Comparator.comparingInt(Bucket::size)
+                .thenComparingInt(Bucket::count)
+                .thenComparingInt(Bucket::threshold);
+
+        /**
+         * @return the bucket a workload falls in
+         */
+        public static Bucket of(int size, int count, int threshold) {
+            return new Bucket(upperBound(SIZE_CLASSES, size), upperBound(COUNT_CLASSES, count),
+                    upperBound(COUNT_CLASSES, threshold));
+        }
+
+        static Bucket parse(String key) {
+            String[] fields = key.split("/");
+            if (fields.length != 3) {
+                throw new IllegalArgumentException("Bucket must be size/count/threshold, got " + key);
+            }
+            return of(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]), Integer.parseInt(fields[2]));
+        }
+
+        @Override
+        public int compareTo(Bucket other) {
+            return ORDER.compare(this, other);
+        }
+
+        @Override
+        public String toString() {
+            return size + "/" + count + "/" + threshold;
+        }
+    }
+
+    /**
+     * The implementation chosen for a bucket
+     * @param splitter the name of the chosen splitter
+     * @param nanos the best split and combine time of each candidate calibrated, empty if from a profile
+     */
+    public record Choice(String splitter, Map<String, Long> nanos) {
+    }
+
+    private final Map<String, SplitterFactory> candidates;
+    private final String fallback;
+    private final Timing timing;
+    private final ConcurrentMap<Bucket, Choice> choices = new ConcurrentHashMap<>();
+
+    /**
+     * @param candidates the implementations to choose from, by name, falling back to {@link #FALLBACK} if one of
+     *                   them and to the first otherwise
+     */
+    public AdaptiveSplitterFactory(Map<String, SplitterFactory> candidates) {
+        this(candidates, candidates.containsKey(FALLBACK) || candidates.isEmpty() ? FALLBACK
+                : candidates.keySet().iterator().next(), MEASURED);
+    }
+
+    /**
+     * @param candidates the implementations to choose from, by name
+     * @param fallback the candidate used for buckets with no choice
+     * @param timing how calibration times the candidates
+     */
+    public AdaptiveSplitterFactory(Map<String, SplitterFactory> candidates, String fallback, Timing timing) {
+        if (candidates.isEmpty()) {
+            throw new IllegalArgumentException("No candidate splitters");
+        }
+        if (!candidates.containsKey(fallback)) {
+            throw new IllegalArgumentException("Fallback " + fallback + " is not a candidate");
+        }
+        this.candidates = Collections.unmodifiableMap(new LinkedHashMap<>(candidates));
+        this.fallback = fallback;
+        this.timing = timing;
+    }
+
+    private static Map<String, SplitterFactory> candidates() {
+        Map<String, SplitterFactory> candidates = new LinkedHashMap<>(Splitters.SPLITTER_FACTORY_MAP);
+        candidates.remove("gf256");
+        candidates.remove(Splitters.ADAPTIVE);
+        return candidates;
+    }
+
+    static int upperBound(int[] classes, int value) {
+        for (int bound : classes) {
+            if (value <= bound) {
+                return bound;
+            }
+        }
+        throw new IllegalArgumentException("Value out of range " + value);
+    }
+
+    @Override
+    public Splitter newSplitter(SecureRandom random, int count, int threshold) {
+        GF256Splitter.checkParameters(count, threshold);
+        return new AdaptiveSplitter(random, count, threshold);
+    }
+
+    /**
+     * Choose without timing anything, the fallback if the bucket has no choice
+     * @param size secret size
+     * @param count number of shares
+     * @param threshold recombination threshold
+     * @return the name of the chosen splitter
+     */
+    public String choose(int size, int count, int threshold) {
+        Choice choice = choices.get(Bucket.of(size, count, threshold));
+        return choice == null ? fallback : choice.splitter();
+    }
+
+    /**
+     * Calibrate each bucket, replacing any choice for it, for use at startup for the workloads expected. Each bucket
+     * is timed at its upper bounds, with the size no more than {@link #MAX_CALIBRATION_SIZE}.
+     * @param buckets the buckets, see {@link Bucket#of}
+     */
+    public void calibrate(Collection<Bucket> buckets) {
+        for (Bucket bucket : buckets) {
+            choices.put(bucket, calibrate(bucket, Math.min(bucket.size(), MAX_CALIBRATION_SIZE), bucket.count(),
+                    Math.min(bucket.threshold(), bucket.count())));
+        }
+    }
+
+    /**
+     * @return the choices made so far, for diagnostics
+     */
+    public Map<Bucket, Choice> choices() {
+        return Collections.unmodifiableMap(new TreeMap<>(choices));
+    }
+
+    /**
+     * Load choices made earlier, replacing any for the same buckets
+     * @param reader a properties file mapping size/count/threshold to a splitter name
+     * @throws IOException if the profile cannot be read
+     * @throws IllegalArgumentException if it names an unknown splitter or a malformed bucket
+     */
+    public void loadProfile(Reader reader) throws IOException {
+        Properties profile = new Properties();
+        profile.load(reader);
+        for (String key : profile.stringPropertyNames()) {
+            String name = profile.getProperty(key).trim();
+            if (!candidates.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown splitter " + name + " in profile");
+            }
+            choices.put(Bucket.parse(key), new Choice(name, Map.of()));
+        }
+    }
+
+    public void loadProfile(Path path) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path)) {
+            loadProfile(reader);
+        }
+    }
+
+    /**
+     * Save the choices made so far, so that later runs need not calibrate
+     * @param writer where to write them as properties
+     * @throws IOException if they cannot be written
+     */
+    public void storeProfile(Writer writer) throws IOException {
+        Properties profile = new Properties();
+        choices.forEach((bucket, choice) -> profile.setProperty(bucket.toString(), choice.splitter()));
+        profile.store(writer, "Splitter choice by secret size/share count/threshold upper bounds");
+    }
+
+    public void storeProfile(Path path) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(path)) {
+            storeProfile(writer);
+        }
+    }
+
+    /**
+     * Time split and combine for each candidate on a secret of the given size, a probe on a small secret first
+     * ruling out any candidate that is far behind
+     */
+    Choice calibrate(Bucket bucket, int size, int count, int threshold) {
+        Map<String, Long> probe = time(candidates.keySet(), Math.min(size, PROBE_SIZE), count, threshold);
+        long bestProbe = Collections.min(probe.values());
+        List<String> shortlist = probe.entrySet().stream()
+                .filter(entry -> entry.getValue() <= bestProbe * PROBE_CUTOFF)
+                .map(Map.Entry::getKey)
+                .toList();
+        Map<String, Long> nanos = size <= PROBE_SIZE ? probe : time(shortlist, size, count, threshold);
+        String best = Collections.min(nanos.entrySet(), Map.Entry.comparingByValue()).getKey();
+        logger.info("Splitter for {} is {}, calibrated {}", bucket, best, nanos);
+        return new Choice(best, Collections.unmodifiableMap(nanos));
+    }
+
+    private Map<String, Long> time(Iterable<String> names, int size, int count, int threshold) {
+        Map<String, Long> nanos = new LinkedHashMap<>();
+        for (String name : names) {
+            nanos.put(name, timing.nanos(name, candidates.get(name), size, count, threshold));
+        }
+        return nanos;
+    }
+
+    private static long measure(String name, SplitterFactory factory, int size, int count, int threshold) {
+        SecureRandom random = DrbgPool.DEFAULT.secureRandom();
+        byte[] secret = new byte[size];
+        random.nextBytes(secret);
+        Splitter splitter = factory.newSplitter(random, count, threshold);
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < WARMUP_RUNS + MEASURED_RUNS; run++) {
+            long start = System.nanoTime();
+            splitter.combine(null, 0, splitter.split(null, 0, secret));
+            long elapsed = System.nanoTime() - start;
+            if (run >= WARMUP_RUNS) {
+                best = Math.min(best, elapsed);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Delegates each call to the splitter chosen for the length of the secret
+     */
+    private class AdaptiveSplitter implements Splitter {
+        private final SecureRandom random;
+        private final int count;
+        private final int threshold;
+        private final ConcurrentMap<String, Splitter> splitters = new ConcurrentHashMap<>();
+
+        AdaptiveSplitter(SecureRandom random, int count, int threshold) {
+            this.random = random;
+            this.count = count;
+            this.threshold = threshold;
+        }
+
+        private Splitter splitter(int size) {
+            return splitters.computeIfAbsent(choose(size, count, threshold),
+                    name -> candidates.get(name).newSplitter(random, count, threshold));
+        }
+
+        private static int size(int shareLength) {
+            return Math.max(0, shareLength - ShareFormat.PAYLOAD_OFFSET);
+        }
+
+        @Override
+        public List<byte[]> split(DeRecSecret.Id id, int version, byte[] secret) {
+            return splitter(secret.length).split(id, version, secret);
+        }
+
+        @Override
+        public byte[] combine(DeRecSecret.Id id, int version, List<byte[]> shares) {
+            return splitter(shares.isEmpty() ? 0 : size(shares.get(0).length)).combine(id, version, shares);
+        }
+
+        @Override
+        public List<SecretBuffer> split(DeRecSecret.Id id, int version, SecretBuffer secret, SecretBufferPool pool) {
+            return splitter(secret.length()).split(id, version, secret, pool);
+        }
+
+        @Override
+        public SecretBuffer combine(DeRecSecret.Id id, int version, List<SecretBuffer> shares,
+                                    SecretBufferPool pool) {
+            return splitter(shares.isEmpty() ? 0 : size(shares.get(0).length())).combine(id, version, shares, pool);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto.shamir;
+
+import com.codahale.shamir.Scheme;
+import com.thebuildingblocks.derec.crypto.ShamirInterfaces;
+import org.derecalliance.derec.api.DeRecSecret;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Splitter backed by {@link Scheme}, the reference against which other implementations are compared
+ */
+public class CodahaleSplitter implements ShamirInterfaces.Splitter {
+
+    public static final ShamirInterfaces.SplitterFactory FACTORY = CodahaleSplitter::new;
+
+    private final Scheme scheme;
+
+    public CodahaleSplitter(SecureRandom random, int count, int threshold) {
+        this.scheme = new Scheme(random, count, threshold);
+    }
+
+    @Override
+    public List<byte[]> split(DeRecSecret.Id id, int version, byte[] secret) {
+        Map<Integer, byte[]> parts = scheme.split(secret);
+        List<byte[]> shares = new ArrayList<>(parts.size());
+        for (int x = 1; x <= scheme.n(); x++) {
+            shares.add(ShareFormat.encode(x, parts.get(x)));
+        }
+        return shares;
+    }
+
+    @Override
+    public byte[] combine(DeRecSecret.Id id, int version, List<byte[]> shares) {
+        if (shares.size() < scheme.k()) {
+            throw new IllegalArgumentException("Need " + scheme.k() + " shares, got " + shares.size());
+        }
+        Map<Integer, byte[]> parts = new HashMap<>(shares.size());
+        for (byte[] share : shares) {
+            parts.put(ShareFormat.x(share), ShareFormat.payload(share));
+        }
+        return scheme.join(parts);
+    }
+}
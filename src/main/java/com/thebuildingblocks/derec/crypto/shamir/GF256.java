@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto.shamir;
+
+/**
+ * Arithmetic in GF(256) with the AES polynomial x^8 + x^4 + x^3 + x + 1 and generator 3, the field used by
+ * {@link com.codahale.shamir.Scheme}. Addition and subtraction are both xor.
+ */
+final class GF256 {
+    static final int POLYNOMIAL = 0x11b;
+
+    // EXP is doubled so that EXP[LOG[a] + LOG[b]] needs no reduction mod 255
+    static final byte[] EXP = new byte[510];
+    static final byte[] LOG = new byte[256];
+
+    // MUL[(a << 8) | b] = a * b, a row of 256 is the multiplication table for a constant
+    static final byte[] MUL = new byte[256 * 256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = (byte) x;
+            EXP[i + 255] = (byte) x;
+            LOG[x] = (byte) i;
+            // multiply by the generator 3 i.e. x * 2 + x
+            x ^= (x << 1);
+            if ((x & 0x100) != 0) {
+                x ^= POLYNOMIAL;
+            }
+        }
+        for (int a = 1; a < 256; a++) {
+            for (int b = 1; b < 256; b++) {
+                MUL[(a << 8) | b] = EXP[Byte.toUnsignedInt(LOG[a]) + Byte.toUnsignedInt(LOG[b])];
+            }
+        }
+    }
+
+    private GF256() {
+    }
+
+    static int mul(int a, int b) {
+        return Byte.toUnsignedInt(MUL[(a << 8) | b]);
+    }
+
+    static int inverse(int a) {
+        if (a == 0) {
+            throw new ArithmeticException("Zero has no inverse");
+        }
+        return Byte.toUnsignedInt(EXP[255 - Byte.toUnsignedInt(LOG[a])]);
+    }
+
+    static int div(int a, int b) {
+        return mul(a, inverse(b));
+    }
+
+    /**
+     * Lagrange basis polynomials for the given x coordinates, evaluated at 0, so that the secret is the sum of
+     * {@code coefficients[j] * y[j]}
+     * @param xs distinct non-zero x coordinates
+     * @return a coefficient for each x
+     */
+    static int[] lagrangeCoefficients(int[] xs) {
+        return lagrangeCoefficients(xs, 0);
+    }
+
+    /**
+     * Lagrange basis polynomials for the given x coordinates, evaluated at a point, so that the value of the
+     * interpolating polynomial there is the sum of {@code coefficients[j] * y[j]}
+     * @param xs distinct x coordinates
+     * @param at where to evaluate, not one of the xs
+     * @return a coefficient for each x
+     */
+    static int[] lagrangeCoefficients(int[] xs, int at) {
+        int[] coefficients = new int[xs.length];
+        for (int j = 0; j < xs.length; j++) {
+            int numerator = 1;
+            int denominator = 1;
+            for (int m = 0; m < xs.length; m++) {
+                if (m != j) {
+                    numerator = mul(numerator, xs[m] ^ at);
+                    denominator = mul(denominator, xs[m] ^ xs[j]);
+                }
+            }
+            coefficients[j] = div(numerator, denominator);
+        }
+        return coefficients;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto.shamir;
+
+import com.thebuildingblocks.derec.crypto.ShamirInterfaces;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Shares of a batch in one array, a row per share index holding the x coordinate followed by the payloads of the
+ * secrets in batch order. A row is itself a share of the concatenation of the secrets.
+ */
+class GF256BatchShares implements ShamirInterfaces.BatchShares {
+    private final byte[] data;
+    private final int shareCount;
+    private final int rowLength;
+    // offsets[s] is where secret s starts in the payload of a row, offsets[secretCount] is the payload length
+    private final int[] offsets;
+
+    GF256BatchShares(byte[] data, int shareCount, int rowLength, int[] offsets) {
+        this.data = data;
+        this.shareCount = shareCount;
+        this.rowLength = rowLength;
+        this.offsets = offsets;
+    }
+
+    @Override
+    public int secretCount() {
+        return offsets.length - 1;
+    }
+
+    @Override
+    public int shareCount() {
+        return shareCount;
+    }
+
+    @Override
+    public ByteBuffer row(int shareIndex) {
+        return ByteBuffer.wrap(data, shareIndex * rowLength, rowLength).slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    public byte[] share(int secretIndex, int shareIndex) {
+        int rowStart = shareIndex * rowLength;
+        int length = offsets[secretIndex + 1] - offsets[secretIndex];
+        byte[] share = new byte[ShareFormat.PAYLOAD_OFFSET + length];
+        share[ShareFormat.X_OFFSET] = data[rowStart + ShareFormat.X_OFFSET];
+        System.arraycopy(data, rowStart + ShareFormat.PAYLOAD_OFFSET + offsets[secretIndex], share,
+                ShareFormat.PAYLOAD_OFFSET, length);
+        return share;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto.shamir;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Row operations over GF(256) applied to many bytes at once, from which polynomial evaluation (Horner) and
+ * interpolation (multiply-accumulate of Lagrange coefficients) are built. Offsets are absolute, buffer positions
+ * are not used or changed, so buffers may be heap, direct or mapped.
+ * <p>
+ * The default kernel uses the Vector API when {@code jdk.incubator.vector} is in the boot layer and falls back to
+ * SWAR on {@code long}, choose explicitly with {@code -Dderec.shamir.kernel=vector|swar|table}.
+ */
+abstract class GF256Kernel {
+    static final Logger logger = LoggerFactory.getLogger(GF256Kernel.class);
+
+    static final GF256Kernel TABLE = new TableKernel();
+    static final GF256Kernel SWAR = new SwarKernel();
+    static final GF256Kernel VECTOR = vectorKernel();
+    static final GF256Kernel DEFAULT = defaultKernel(System.getProperty("derec.shamir.kernel", ""));
+
+    /**
+     * {@code acc[i] = acc[i] * x + src[i]}, one step of Horner's rule
+     */
+    abstract void horner(ByteBuffer acc, int accOffset, int x, ByteBuffer src, int srcOffset, int length);
+
+    /**
+     * {@code acc[i] = acc[i] + src[i] * c}
+     */
+    abstract void mulAccumulate(ByteBuffer acc, int accOffset, int c, ByteBuffer src, int srcOffset, int length);
+
+    abstract String name();
+
+    /**
+     * @return the vector kernel or null if the Vector API is not available
+     */
+    private static GF256Kernel vectorKernel() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            return VectorKernel.isSupported() ? new VectorKernel() : null;
+        } catch (LinkageError e) {
+            logger.warn("Vector API not usable", e);
+            return null;
+        }
+    }
+
+    private static GF256Kernel defaultKernel(String name) {
+        GF256Kernel kernel = switch (name) {
+            case "table" -> TABLE;
+            case "swar" -> SWAR;
+            case "vector" -> VECTOR;
+            case "" -> VECTOR == null ? SWAR : VECTOR;
+            default -> throw new IllegalArgumentException("Unknown kernel " + name);
+        };
+        if (kernel == null) {
+            throw new IllegalStateException("Kernel " + name + " is not available");
+        }
+        logger.debug("Using {} GF(256) kernel", kernel.name());
+        return kernel;
+    }
+
+    /**
+     * One byte at a time using a row of the multiplication table, also used for the tails of the wider kernels
+     */
+    static class TableKernel extends GF256Kernel {
+        @Override
+        void horner(ByteBuffer acc, int accOffset, int x, ByteBuffer src, int srcOffset, int length) {
+            int row = x << 8;
+            for (int i = 0; i < length; i++) {
+                int a = Byte.toUnsignedInt(acc.get(accOffset + i));
+                acc.put(accOffset + i, (byte) (GF256.MUL[row | a] ^ src.get(srcOffset + i)));
+            }
+        }
+
+        @Override
+        void mulAccumulate(ByteBuffer acc, int accOffset, int c, ByteBuffer src, int srcOffset, int length) {
+            int row = c << 8;
+            for (int i = 0; i < length; i++) {
+                int s = Byte.toUnsignedInt(src.get(srcOffset + i));
+                acc.put(accOffset + i, (byte) (acc.get(accOffset + i) ^ GF256.MUL[row | s]));
+            }
+        }
+
+        @Override
+        String name() {
+            return "table";
+        }
+    }
+
+    /**
+     * Eight bytes at a time in a {@code long}. For each bit of the input bytes, selects the product of the constant
+     * and that bit's power of two, the selections are independent so they pipeline well.
+     */
+    static class SwarKernel extends GF256Kernel {
+        static final long LOW_BIT = 0x0101010101010101L;
+
+        // POWERS[c * 8 + j] is c * 2^j broadcast to all bytes
+        static final long[] POWERS = new long[256 * 8];
+
+        static {
+            for (int c = 0; c < 256; c++) {
+                for (int j = 0; j < 8; j++) {
+                    POWERS[c * 8 + j] = GF256.mul(c, 1 << j) * LOW_BIT;
+                }
+            }
+        }
+
+        /**
+         * multiply each byte by c
+         */
+        static long mul(long v, int c) {
+            int base = c * 8;
+            long result = 0;
+            for (int j = 0; j < 8; j++) {
+                // 0xff in each byte whose bit j is set
+                long mask = ((v >>> j) & LOW_BIT) * 0xff;
+                result ^= mask & POWERS[base + j];
+            }
+            return result;
+        }
+
+        @Override
+        void horner(ByteBuffer acc, int accOffset, int x, ByteBuffer src, int srcOffset, int length) {
+            int i = 0;
+            for (; i <= length - Long.BYTES; i += Long.BYTES) {
+                acc.putLong(accOffset + i, mul(acc.getLong(accOffset + i), x) ^ src.getLong(srcOffset + i));
+            }
+            TABLE.horner(acc, accOffset + i, x, src, srcOffset + i, length - i);
+        }
+
+        @Override
+        void mulAccumulate(ByteBuffer acc, int accOffset, int c, ByteBuffer src, int srcOffset, int length) {
+            int i = 0;
+            for (; i <= length - Long.BYTES; i += Long.BYTES) {
+                acc.putLong(accOffset + i, acc.getLong(accOffset + i) ^ mul(src.getLong(srcOffset + i), c));
+            }
+            TABLE.mulAccumulate(acc, accOffset + i, c, src, srcOffset + i, length - i);
+        }
+
+        @Override
+        String name() {
+            return "swar";
+        }
+    }
+}
@@ -0,0 +1,441 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto.shamir;
+
+import com.thebuildingblocks.derec.crypto.ShamirInterfaces;
+import com.thebuildingblocks.derec.crypto.secret.SecretBuffer;
+import com.thebuildingblocks.derec.crypto.secret.SecretBufferPool;
+import org.derecalliance.derec.api.DeRecSecret;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * Table driven splitter that evaluates the sharing polynomials for a block of secret bytes at a time using a
+ * {@link GF256Kernel}, so many bytes of a share are computed in parallel lanes.
+ * <p>
+ * Output is byte compatible with {@link CodahaleSplitter}, shares from either can be combined by the other.
+ */
+public class GF256Splitter implements ShamirInterfaces.Splitter, ShamirInterfaces.BatchSplitter,
+        ShamirInterfaces.Refresher {
+
+    public static final ShamirInterfaces.SplitterFactory FACTORY = GF256Splitter::new;
+
+    // columns of the secret processed together, sized so a block of coefficients stays in cache
+    static final int BLOCK_SIZE = 2048;
+    private static final ByteBuffer ZERO_BLOCK = ByteBuffer.wrap(new byte[BLOCK_SIZE]);
+
+    final SecureRandom random;
+    final int count;
+    final int threshold;
+    final GF256Kernel kernel;
+    final LagrangeCache lagrangeCache;
+
+    public GF256Splitter(SecureRandom random, int count, int threshold) {
+        this(random, count, threshold, GF256Kernel.DEFAULT, LagrangeCache.SHARED);
+    }
+
+    /**
+     * @param random a random number generator
+     * @param count the number of shares to produce
+     * @param threshold the recombination threshold
+     * @param lagrangeCache where to cache the coefficients used when combining
+     */
+    public GF256Splitter(SecureRandom random, int count, int threshold, LagrangeCache lagrangeCache) {
+        this(random, count, threshold, GF256Kernel.DEFAULT, lagrangeCache);
+    }
+
+    GF256Splitter(SecureRandom random, int count, int threshold, GF256Kernel kernel, LagrangeCache lagrangeCache) {
+        checkParameters(count, threshold);
+        this.random = random;
+        this.count = count;
+        this.threshold = threshold;
+        this.kernel = kernel;
+        this.lagrangeCache = lagrangeCache;
+    }
+
+    static void checkParameters(int count, int threshold) {
+        if (threshold < 2 || count < threshold || count > 255) {
+            throw new IllegalArgumentException("Need 2 <= threshold <= count <= 255, got threshold " + threshold
+                    + " count " + count);
+        }
+    }
+
+    @Override
+    public List<byte[]> split(DeRecSecret.Id id, int version, byte[] secret) {
+        byte[][] shares = new byte[count][ShareFormat.PAYLOAD_OFFSET + secret.length];
+        ByteBuffer[] shareBuffers = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            shares[i][ShareFormat.X_OFFSET] = (byte) (i + 1);
+            shareBuffers[i] = ByteBuffer.wrap(shares[i]);
+        }
+        split(ByteBuffer.wrap(secret), 0, secret.length, shareBuffers, ShareFormat.PAYLOAD_OFFSET);
+
+        return new ArrayList<>(Arrays.asList(shares));
+    }
+
+    /**
+     * Split a range of secret bytes into a range of each share, one block of columns at a time
+     * @param secret the secret
+     * @param secretOffset where to start in the secret
+     * @param length how many bytes to split
+     * @param shares a buffer for each share, x coordinate is index + 1
+     * @param shareOffset where to start writing in each share
+     */
+    void split(ByteBuffer secret, int secretOffset, int length, ByteBuffer[] shares, int shareOffset) {
+        byte[] coefficients = null;
+        for (int done = 0; done < length; done += BLOCK_SIZE) {
+            int blockLength = Math.min(BLOCK_SIZE, length - done);
+            int coefficientsLength = (threshold - 1) * blockLength;
+            if (coefficients == null || coefficients.length != coefficientsLength) {
+                coefficients = new byte[coefficientsLength];
+            }
+            random.nextBytes(coefficients);
+            evaluate(kernel, secret, secretOffset + done, ByteBuffer.wrap(coefficients), 0, threshold - 1,
+                    blockLength, shares, shareOffset + done);
+        }
+        if (coefficients != null) {
+            Arrays.fill(coefficients, (byte) 0);
+        }
+    }
+
+    /**
+     * Split a range of secret bytes using coefficients that have already been drawn
+     * @param secret the secret
+     * @param secretOffset where to start in the secret
+     * @param length how many bytes to split
+     * @param shares a buffer for each share, x coordinate is index + 1
+     * @param shareOffset where to start writing in each share
+     * @param coefficients {@code (threshold - 1) * length} random bytes, consumed a block at a time
+     * @param coefficientsOffset where they start
+     */
+    void split(ByteBuffer secret, int secretOffset, int length, ByteBuffer[] shares, int shareOffset,
+               ByteBuffer coefficients, int coefficientsOffset) {
+        for (int done = 0; done < length; done += BLOCK_SIZE) {
+            int blockLength = Math.min(BLOCK_SIZE, length - done);
+            evaluate(kernel, secret, secretOffset + done, coefficients,
+                    coefficientsOffset + (threshold - 1) * done, threshold - 1, blockLength, shares,
+                    shareOffset + done);
+        }
+    }
+
+    /**
+     * Evaluate, at x = 1..shares.length, the polynomials whose constant terms are the secret bytes and whose
+     * other coefficients are given as rows, one row per degree
+     * @param kernel the kernel to use
+     * @param secret the constant terms
+     * @param secretOffset where they start
+     * @param coefficients {@code rows * length} bytes, row j holding the coefficients of degree j + 1
+     * @param coefficientsOffset where the rows start
+     * @param rows the number of rows i.e. threshold - 1
+     * @param length the number of polynomials
+     * @param shares where to write the values, share i receiving the value at x = i + 1
+     * @param shareOffset where to write in each share
+     */
+    static void evaluate(GF256Kernel kernel, ByteBuffer secret, int secretOffset, ByteBuffer coefficients,
+                         int coefficientsOffset, int rows, int length, ByteBuffer[] shares, int shareOffset) {
+        for (int i = 0; i < shares.length; i++) {
+            evaluate(kernel, coefficients, coefficientsOffset, rows, length, i + 1, secret, secretOffset,
+                    shares[i], shareOffset);
+        }
+    }
+
+    /**
+     * Evaluate polynomials at one x
+     * @param kernel the kernel to use
+     * @param coefficients {@code rows * length} bytes, row j holding the coefficients of degree j + 1
+     * @param coefficientsOffset where the rows start
+     * @param rows the number of rows
+     * @param length the number of polynomials
+     * @param x where to evaluate
+     * @param constant the constant terms, null for zero
+     * @param constantOffset where they start
+     * @param out where to write the values, must not overlap the constant terms
+     * @param outOffset where to start writing
+     */
+    static void evaluate(GF256Kernel kernel, ByteBuffer coefficients, int coefficientsOffset, int rows,
+                         int length, int x, ByteBuffer constant, int constantOffset, ByteBuffer out,
+                         int outOffset) {
+        // Horner's rule from the highest degree down to the constant term
+        out.put(outOffset, coefficients, coefficientsOffset + (rows - 1) * length, length);
+        for (int row = rows - 2; row >= 0; row--) {
+            kernel.horner(out, outOffset, x, coefficients, coefficientsOffset + row * length, length);
+        }
+        if (constant == null) {
+            kernel.horner(out, outOffset, x, ZERO_BLOCK, 0, length);
+        } else {
+            kernel.horner(out, outOffset, x, constant, constantOffset, length);
+        }
+    }
+
+    /**
+     * Old shares plus shares of zero, i.e. each old share plus the value at its x of fresh polynomials with
+     * constant term zero, the same polynomials for all the shares
+     */
+    @Override
+    public List<byte[]> refresh(DeRecSecret.Id id, int version, List<byte[]> shares) {
+        List<byte[]> olds = checkShares(shares, Math.max(1, shares.size()));
+        int length = ShareFormat.payloadLength(olds.get(0));
+        int[] xs = xs(olds);
+        ByteBuffer[] oldBuffers = new ByteBuffer[olds.size()];
+        byte[][] news = new byte[olds.size()][ShareFormat.PAYLOAD_OFFSET + length];
+        ByteBuffer[] newBuffers = new ByteBuffer[olds.size()];
+        for (int i = 0; i < xs.length; i++) {
+            oldBuffers[i] = ByteBuffer.wrap(olds.get(i));
+            news[i][ShareFormat.X_OFFSET] = (byte) xs[i];
+            newBuffers[i] = ByteBuffer.wrap(news[i]);
+        }
+        refresh(xs, oldBuffers, ShareFormat.PAYLOAD_OFFSET, length, newBuffers, ShareFormat.PAYLOAD_OFFSET);
+        return new ArrayList<>(Arrays.asList(news));
+    }
+
+    @Override
+    public List<byte[]> zeroShares(DeRecSecret.Id id, int version, int[] xs, int length) {
+        byte[][] updates = new byte[xs.length][ShareFormat.PAYLOAD_OFFSET + length];
+        ByteBuffer[] updateBuffers = new ByteBuffer[xs.length];
+        boolean[] seen = new boolean[256];
+        for (int i = 0; i < xs.length; i++) {
+            if (xs[i] < 1 || xs[i] > 255 || seen[xs[i]]) {
+                throw new IllegalArgumentException("x coordinates must be distinct and in 1..255, got " + xs[i]);
+            }
+            seen[xs[i]] = true;
+            updates[i][ShareFormat.X_OFFSET] = (byte) xs[i];
+            updateBuffers[i] = ByteBuffer.wrap(updates[i]);
+        }
+        refresh(xs, null, 0, length, updateBuffers, ShareFormat.PAYLOAD_OFFSET);
+        return new ArrayList<>(Arrays.asList(updates));
+    }
+
+    @Override
+    public byte[] applyUpdates(byte[] share, List<byte[]> updates) {
+        int x = ShareFormat.x(share);
+        int length = ShareFormat.payloadLength(share);
+        byte[] refreshed = share.clone();
+        ByteBuffer buffer = ByteBuffer.wrap(refreshed);
+        for (byte[] update : updates) {
+            if (ShareFormat.x(update) != x || ShareFormat.payloadLength(update) != length) {
+                throw new IllegalArgumentException("Update does not match share " + x);
+            }
+            // addition in GF(256)
+            kernel.mulAccumulate(buffer, ShareFormat.PAYLOAD_OFFSET, 1, ByteBuffer.wrap(update),
+                    ShareFormat.PAYLOAD_OFFSET, length);
+        }
+        return refreshed;
+    }
+
+    /**
+     * Add shares of zero to a range of each old share, one block of columns at a time
+     * @param xs the x coordinate of each share
+     * @param olds the old shares, null to produce the shares of zero alone
+     * @param oldOffset where to start in each old share
+     * @param length how many bytes to refresh
+     * @param news where to write the new shares
+     * @param newOffset where to start writing in each new share
+     */
+    void refresh(int[] xs, ByteBuffer[] olds, int oldOffset, int length, ByteBuffer[] news, int newOffset) {
+        byte[] coefficients = null;
+        for (int done = 0; done < length; done += BLOCK_SIZE) {
+            int blockLength = Math.min(BLOCK_SIZE, length - done);
+            int coefficientsLength = (threshold - 1) * blockLength;
+            if (coefficients == null || coefficients.length != coefficientsLength) {
+                coefficients = new byte[coefficientsLength];
+            }
+            random.nextBytes(coefficients);
+            for (int i = 0; i < xs.length; i++) {
+                evaluate(kernel, ByteBuffer.wrap(coefficients), 0, threshold - 1, blockLength, xs[i],
+                        olds == null ? null : olds[i], oldOffset + done, news[i], newOffset + done);
+            }
+        }
+        if (coefficients != null) {
+            Arrays.fill(coefficients, (byte) 0);
+        }
+    }
+
+    /**
+     * The secrets are split as one concatenated secret, each column being independent, with the coefficients for
+     * the whole batch drawn in a single request to the random number generator.
+     */
+    @Override
+    public ShamirInterfaces.BatchShares splitBatch(List<ShamirInterfaces.BatchEntry> batch) {
+        int[] offsets = new int[batch.size() + 1];
+        for (int s = 0; s < batch.size(); s++) {
+            offsets[s + 1] = Math.addExact(offsets[s], batch.get(s).secret().length);
+        }
+        int length = offsets[batch.size()];
+        byte[] secrets = new byte[length];
+        for (int s = 0; s < batch.size(); s++) {
+            System.arraycopy(batch.get(s).secret(), 0, secrets, offsets[s], offsets[s + 1] - offsets[s]);
+        }
+        byte[] coefficients = new byte[Math.multiplyExact(threshold - 1, length)];
+        random.nextBytes(coefficients);
+
+        int rowLength = ShareFormat.PAYLOAD_OFFSET + length;
+        byte[] data = new byte[Math.multiplyExact(count, rowLength)];
+        ByteBuffer[] rows = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            data[i * rowLength + ShareFormat.X_OFFSET] = (byte) (i + 1);
+            rows[i] = ByteBuffer.wrap(data, i * rowLength, rowLength).slice();
+        }
+        split(ByteBuffer.wrap(secrets), 0, length, rows, ShareFormat.PAYLOAD_OFFSET, ByteBuffer.wrap(coefficients),
+                0);
+        Arrays.fill(secrets, (byte) 0);
+        Arrays.fill(coefficients, (byte) 0);
+        return new GF256BatchShares(data, count, rowLength, offsets);
+    }
+
+    /**
+     * Shares are written directly into their buffers, the only secret material on the heap is a block of
+     * coefficients at a time, which is zeroed afterwards.
+     */
+    @Override
+    public List<SecretBuffer> split(DeRecSecret.Id id, int version, SecretBuffer secret, SecretBufferPool pool) {
+        int length = secret.length();
+        List<SecretBuffer> shares = new ArrayList<>(count);
+        ByteBuffer[] shareBuffers = new ByteBuffer[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                SecretBuffer share = pool.acquire(ShareFormat.PAYLOAD_OFFSET + length);
+                shares.add(share);
+                share.put(ShareFormat.X_OFFSET, (byte) (i + 1));
+                shareBuffers[i] = share.buffer();
+            }
+            split(secret.buffer(), 0, length, shareBuffers, ShareFormat.PAYLOAD_OFFSET);
+        } catch (RuntimeException e) {
+            shares.forEach(SecretBuffer::close);
+            throw e;
+        }
+        return shares;
+    }
+
+    @Override
+    public SecretBuffer combine(DeRecSecret.Id id, int version, List<SecretBuffer> shares, SecretBufferPool pool) {
+        List<SecretBuffer> parts = checkShares(shares, threshold, ShareFormat::x, ShareFormat::payloadLength);
+        int length = ShareFormat.payloadLength(parts.get(0));
+        int[] coefficients = lagrangeCache.coefficients(xs(parts, ShareFormat::x));
+        ByteBuffer[] buffers = new ByteBuffer[parts.size()];
+        for (int j = 0; j < buffers.length; j++) {
+            buffers[j] = parts.get(j).buffer();
+        }
+        SecretBuffer secret = pool.acquire(length);
+        combine(coefficients, buffers, ShareFormat.PAYLOAD_OFFSET, secret.buffer(), 0, length);
+        return secret;
+    }
+
+    @Override
+    public byte[] combine(DeRecSecret.Id id, int version, List<byte[]> shares) {
+        List<byte[]> parts = checkShares(shares, threshold);
+        int length = ShareFormat.payloadLength(parts.get(0));
+        int[] coefficients = lagrangeCache.coefficients(xs(parts));
+        ByteBuffer[] buffers = new ByteBuffer[parts.size()];
+        for (int j = 0; j < buffers.length; j++) {
+            buffers[j] = ByteBuffer.wrap(parts.get(j));
+        }
+        byte[] secret = new byte[length];
+        combine(coefficients, buffers, ShareFormat.PAYLOAD_OFFSET, ByteBuffer.wrap(secret), 0, length);
+        return secret;
+    }
+
+    /**
+     * Combine a range of each share into a range of the secret
+     * @param coefficients Lagrange coefficients, one per share
+     * @param shares the share buffers
+     * @param shareOffset where to start in each share
+     * @param secret where to write the secret
+     * @param secretOffset where to start writing
+     * @param length number of bytes to combine
+     */
+    void combine(int[] coefficients, ByteBuffer[] shares, int shareOffset, ByteBuffer secret, int secretOffset,
+                 int length) {
+        interpolate(kernel, coefficients, shares, shareOffset, secret, secretOffset, length);
+    }
+
+    /**
+     * Sum of the shares weighted by their Lagrange coefficients, a block of columns at a time so that the
+     * output block stays in cache
+     * @param kernel the kernel to use
+     * @param coefficients Lagrange coefficients, one per share
+     * @param shares the share buffers
+     * @param shareOffset where the values to combine start in each share
+     * @param secret where to write the secret, the range is overwritten
+     * @param secretOffset where to start writing
+     * @param length number of bytes to combine
+     */
+    static void interpolate(GF256Kernel kernel, int[] coefficients, ByteBuffer[] shares, int shareOffset,
+                            ByteBuffer secret, int secretOffset, int length) {
+        for (int done = 0; done < length; done += BLOCK_SIZE) {
+            int blockLength = Math.min(BLOCK_SIZE, length - done);
+            for (int i = 0; i < blockLength; i++) {
+                secret.put(secretOffset + done + i, (byte) 0);
+            }
+            for (int j = 0; j < shares.length; j++) {
+                if (coefficients[j] == 0) {
+                    continue;
+                }
+                kernel.mulAccumulate(secret, secretOffset + done, coefficients[j], shares[j], shareOffset + done,
+                        blockLength);
+            }
+        }
+    }
+
+    /**
+     * Check there are enough shares, that they are the same length and have distinct x coordinates
+     * @param shares the shares offered
+     * @param threshold the number needed
+     * @return the first threshold shares
+     */
+    static List<byte[]> checkShares(List<byte[]> shares, int threshold) {
+        return checkShares(shares, threshold, ShareFormat::x, ShareFormat::payloadLength);
+    }
+
+    static <T> List<T> checkShares(List<T> shares, int threshold, ToIntFunction<T> xOf,
+                                   ToIntFunction<T> payloadLengthOf) {
+        if (shares.size() < threshold) {
+            throw new IllegalArgumentException("Need " + threshold + " shares, got " + shares.size());
+        }
+        List<T> parts = shares.subList(0, threshold);
+        int length = payloadLengthOf.applyAsInt(parts.get(0));
+        boolean[] seen = new boolean[256];
+        for (T share : parts) {
+            if (payloadLengthOf.applyAsInt(share) != length) {
+                throw new IllegalArgumentException("Varying lengths of shares");
+            }
+            int x = xOf.applyAsInt(share);
+            if (seen[x]) {
+                throw new IllegalArgumentException("Duplicate share " + x);
+            }
+            seen[x] = true;
+        }
+        return parts;
+    }
+
+    static int[] xs(List<byte[]> shares) {
+        return xs(shares, ShareFormat::x);
+    }
+
+    static <T> int[] xs(List<T> shares, ToIntFunction<T> xOf) {
+        int[] xs = new int[shares.size()];
+        for (int j = 0; j < xs.length; j++) {
+            xs[j] = xOf.applyAsInt(shares.get(j));
+        }
+        return xs;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto.shamir;
+
+import com.thebuildingblocks.derec.crypto.ShamirInterfaces;
+import org.derecalliance.derec.api.DeRecSecret;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streams a secret through a {@link GF256Splitter} one block at a time, holding one block of secret and one block
+ * per share, so memory is O(block size * share count) whatever the size of the secret.
+ */
+public class GF256StreamSplitter implements ShamirInterfaces.StreamSplitter {
+
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    private final GF256Splitter splitter;
+    private final int blockSize;
+
+    public GF256StreamSplitter(SecureRandom random, int count, int threshold) {
+        this(new GF256Splitter(random, count, threshold), DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param splitter the splitter that processes each block, e.g. a {@link ParallelSplitter} for large blocks
+     * @param blockSize bytes of secret read per block
+     */
+    public GF256StreamSplitter(GF256Splitter splitter, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive");
+        }
+        this.splitter = splitter;
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public void split(DeRecSecret.Id id, int version, ReadableByteChannel secret,
+                      List<? extends WritableByteChannel> shares) throws IOException {
+        if (shares.size() != splitter.count) {
+            throw new IllegalArgumentException("Need " + splitter.count + " share channels, got " + shares.size());
+        }
+        ByteBuffer[] blocks = new ByteBuffer[shares.size()];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = ByteBuffer.allocate(blockSize);
+            writeFully(shares.get(i), ByteBuffer.wrap(new byte[]{(byte) (i + 1)}));
+        }
+        ByteBuffer block = ByteBuffer.allocate(blockSize);
+        try {
+            int length;
+            while ((length = readFully(secret, block.clear())) > 0) {
+                splitter.split(block, 0, length, blocks, 0);
+                for (int i = 0; i < blocks.length; i++) {
+                    writeFully(shares.get(i), blocks[i].clear().limit(length));
+                }
+            }
+        } finally {
+            clear(block, blocks);
+        }
+    }
+
+    @Override
+    public void combine(DeRecSecret.Id id, int version, List<? extends ReadableByteChannel> shares,
+                        WritableByteChannel secret) throws IOException {
+        if (shares.size() < splitter.threshold) {
+            throw new IllegalArgumentException("Need " + splitter.threshold + " shares, got " + shares.size());
+        }
+        List<? extends ReadableByteChannel> parts = shares.subList(0, splitter.threshold);
+        int[] xs = new int[parts.size()];
+        boolean[] seen = new boolean[256];
+        ByteBuffer x = ByteBuffer.allocate(1);
+        for (int j = 0; j < xs.length; j++) {
+            if (readFully(parts.get(j), x.clear()) != 1) {
+                throw new EOFException("Share " + j + " is empty");
+            }
+            xs[j] = Byte.toUnsignedInt(x.get(0));
+            if (xs[j] == 0 || seen[xs[j]]) {
+                throw new IllegalArgumentException("Invalid or duplicate share " + xs[j]);
+            }
+            seen[xs[j]] = true;
+        }
+        int[] coefficients = splitter.lagrangeCache.coefficients(xs);
+
+        ByteBuffer[] blocks = new ByteBuffer[parts.size()];
+        for (int j = 0; j < blocks.length; j++) {
+            blocks[j] = ByteBuffer.allocate(blockSize);
+        }
+        ByteBuffer block = ByteBuffer.allocate(blockSize);
+        try {
+            while (true) {
+                int length = readFully(parts.get(0), blocks[0].clear());
+                for (int j = 1; j < blocks.length; j++) {
+                    if (readFully(parts.get(j), blocks[j].clear()) != length) {
+                        throw new IllegalArgumentException("Varying lengths of shares");
+                    }
+                }
+                if (length == 0) {
+                    return;
+                }
+                splitter.combine(coefficients, blocks, 0, block, 0, length);
+                writeFully(secret, block.clear().limit(length));
+            }
+        } finally {
+            clear(block, blocks);
+        }
+    }
+
+    /**
+     * Zero the blocks of secret and shares once a stream is done with them
+     */
+    private static void clear(ByteBuffer block, ByteBuffer[] blocks) {
+        Arrays.fill(block.array(), (byte) 0);
+        for (ByteBuffer share : blocks) {
+            Arrays.fill(share.array(), (byte) 0);
+        }
+    }
+
+    /**
+     * Read until the buffer is full or end of stream
+     * @return the number of bytes read
+     */
+    static int readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                break;
+            }
+        }
+        return buffer.position() - start;
+    }
+
+    static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto.shamir;
+
+import com.thebuildingblocks.derec.crypto.ShamirInterfaces;
+import com.thebuildingblocks.derec.crypto.aesgcm.Crypto;
+import org.derecalliance.derec.api.DeRecSecret;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Encrypts the secret once with AES-GCM under a fresh 256 bit key and Shamir splits only the key.
+ * <p>
+ * As a {@link ShamirInterfaces.Splitter} the IV and ciphertext are erasure coded across the shares, any threshold
+ * of which recover them, so each share holds a share of the key and about 1/threshold of the ciphertext. The
+ * ciphertext needs no secrecy from the coding, GCM both protects and authenticates it. For storing the ciphertext
+ * once elsewhere, {@link #seal} and {@link #open} split only the key.
+ * <p>
+ * Shares are [x][key share][ciphertext length][ciphertext fragment] and are not compatible with the other
+ * splitters.
+ */
+public class HybridSplitter implements ShamirInterfaces.Splitter {
+    public static final ShamirInterfaces.SplitterFactory FACTORY = HybridSplitter::new;
+
+    public static final int KEY_LENGTH = 32;
+    private static final int KEY_OFFSET = ShareFormat.PAYLOAD_OFFSET;
+    private static final int DATA_LENGTH_OFFSET = KEY_OFFSET + KEY_LENGTH;
+    private static final int FRAGMENT_OFFSET = DATA_LENGTH_OFFSET + Integer.BYTES;
+
+    /**
+     * An encrypted secret and shares of its key
+     * @param keyShares shares of the key, in the format of {@link GF256Splitter}
+     * @param ciphertext the IV followed by the AES-GCM ciphertext
+     */
+    public record Sealed(List<byte[]> keyShares, byte[] ciphertext) {
+    }
+
+    final SecureRandom random;
+    final int count;
+    final int threshold;
+    final GF256Splitter keySplitter;
+    // coefficients for the coding fragments at x = threshold + 1..count from the data fragments at x = 1..threshold
+    private final int[][] codingCoefficients;
+
+    public HybridSplitter(SecureRandom random, int count, int threshold) {
+        this.keySplitter = new GF256Splitter(random, count, threshold);
+        this.random = random;
+        this.count = count;
+        this.threshold = threshold;
+        int[] dataXs = new int[threshold];
+        for (int i = 0; i < threshold; i++) {
+            dataXs[i] = i + 1;
+        }
+        this.codingCoefficients = new int[count - threshold][];
+        for (int i = threshold; i < count; i++) {
+            codingCoefficients[i - threshold] = GF256.lagrangeCoefficients(dataXs, i + 1);
+        }
+    }
+
+    /**
+     * Encrypt a secret and split its key
+     * @param id a secret id
+     * @param version a version
+     * @param secret some bytes
+     * @return the ciphertext, to be stored once, and a share of the key for each helper
+     */
+    public Sealed seal(DeRecSecret.Id id, int version, byte[] secret) {
+        byte[] key = new byte[KEY_LENGTH];
+        random.nextBytes(key);
+        try {
+            byte[] iv = Crypto.generateIv();
+            byte[] ciphertext = Crypto.encryptWithPrefixIv(secret, Crypto.generateSecretKey(key), iv);
+            return new Sealed(keySplitter.split(id, version, key), ciphertext);
+        } finally {
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+
+    /**
+     * Recombine the key and decrypt
+     * @param id the secret id
+     * @param version the version
+     * @param keyShares at least threshold shares of the key
+     * @param ciphertext the IV and ciphertext from {@link #seal}
+     * @return the secret
+     * @throws RuntimeException if the ciphertext fails authentication
+     */
+    public byte[] open(DeRecSecret.Id id, int version, List<byte[]> keyShares, byte[] ciphertext) {
+        byte[] key = keySplitter.combine(id, version, keyShares);
+        try {
+            return Crypto.decryptWithPrefixIv(ciphertext, Crypto.generateSecretKey(key));
+        } finally {
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+
+    @Override
+    public List<byte[]> split(DeRecSecret.Id id, int version, byte[] secret) {
+        Sealed sealed = seal(id, version, secret);
+        byte[] data = sealed.ciphertext();
+        int fragmentLength = (data.length + threshold - 1) / threshold;
+        byte[][] shares = new byte[count][FRAGMENT_OFFSET + fragmentLength];
+        ByteBuffer[] fragments = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            byte[] keyShare = sealed.keyShares().get(i);
+            System.arraycopy(keyShare, 0, shares[i], 0, keyShare.length);
+            ByteBuffer.wrap(shares[i]).putInt(DATA_LENGTH_OFFSET, data.length);
+            fragments[i] = ByteBuffer.wrap(shares[i], FRAGMENT_OFFSET, fragmentLength).slice();
+            Arrays.fill(keyShare, (byte) 0);
+        }
+        // the first threshold shares hold the data as it is, the rest are codes of it
+        for (int i = 0; i < threshold; i++) {
+            int from = Math.min(data.length, i * fragmentLength);
+            int to = Math.min(data.length, from + fragmentLength);
+            System.arraycopy(data, from, shares[i], FRAGMENT_OFFSET, to - from);
+        }
+        ByteBuffer[] dataFragments = Arrays.copyOf(fragments, threshold);
+        for (int i = threshold; i < count; i++) {
+            GF256Splitter.interpolate(keySplitter.kernel, codingCoefficients[i - threshold], dataFragments, 0,
+                    fragments[i], 0, fragmentLength);
+        }
+        return new ArrayList<>(Arrays.asList(shares));
+    }
+
+    @Override
+    public byte[] combine(DeRecSecret.Id id, int version, List<byte[]> shares) {
+        List<byte[]> parts = GF256Splitter.checkShares(shares, threshold);
+        int shareLength = parts.get(0).length;
+        if (shareLength < FRAGMENT_OFFSET) {
+            throw new IllegalArgumentException("Not a hybrid share");
+        }
+        int dataLength = ByteBuffer.wrap(parts.get(0)).getInt(DATA_LENGTH_OFFSET);
+        int fragmentLength = shareLength - FRAGMENT_OFFSET;
+        if (dataLength < 0 || dataLength > (long) fragmentLength * threshold) {
+            throw new IllegalArgumentException("Share length does not match ciphertext length");
+        }
+        List<byte[]> keyShares = new ArrayList<>(threshold);
+        ByteBuffer[] fragments = new ByteBuffer[threshold];
+        for (int j = 0; j < threshold; j++) {
+            byte[] part = parts.get(j);
+            if (ByteBuffer.wrap(part).getInt(DATA_LENGTH_OFFSET) != dataLength) {
+                throw new IllegalArgumentException("Shares are of different ciphertexts");
+            }
+            keyShares.add(Arrays.copyOf(part, DATA_LENGTH_OFFSET));
+            fragments[j] = ByteBuffer.wrap(part, FRAGMENT_OFFSET, fragmentLength).slice();
+        }
+        int[] xs = GF256Splitter.xs(parts);
+        byte[] data = new byte[fragmentLength * threshold];
+        ByteBuffer dataBuffer = ByteBuffer.wrap(data);
+        for (int i = 0; i < threshold; i++) {
+            GF256Splitter.interpolate(keySplitter.kernel, GF256.lagrangeCoefficients(xs, i + 1), fragments, 0,
+                    dataBuffer, i * fragmentLength, fragmentLength);
+        }
+        try {
+            return open(id, version, keyShares, Arrays.copyOf(data, dataLength));
+        } finally {
+            keyShares.forEach(keyShare -> Arrays.fill(keyShare, (byte) 0));
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto.shamir;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of Lagrange coefficients by set of share x coordinates. When the same helpers answer
+ * repeatedly, combining is then only the multiply-accumulate of the shares.
+ */
+public class LagrangeCache {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Cache shared by splitters that are not given their own
+     */
+    public static final LagrangeCache SHARED = new LagrangeCache(DEFAULT_CAPACITY);
+
+    /**
+     * Cache statistics
+     * @param hits lookups answered from the cache
+     * @param misses lookups that computed coefficients
+     * @param evictions entries dropped to stay within capacity
+     * @param size entries currently held
+     */
+    public record Stats(long hits, long misses, long evictions, int size) {
+    }
+
+    /**
+     * A set of x coordinates 1..255 as a bit set
+     */
+    record Key(long bits0, long bits1, long bits2, long bits3) {
+        static Key of(int[] xs) {
+            long[] bits = new long[4];
+            for (int x : xs) {
+                bits[x >>> 6] |= 1L << x;
+            }
+            return new Key(bits[0], bits[1], bits[2], bits[3]);
+        }
+    }
+
+    private final Map<Key, byte[]> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public LagrangeCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, byte[]> eldest) {
+                if (size() > capacity) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Lagrange coefficients at 0 for the given x coordinates, in the same order
+     * @param xs distinct non-zero x coordinates
+     * @return a coefficient for each x
+     */
+    public int[] coefficients(int[] xs) {
+        Key key = Key.of(xs);
+        byte[] byX;
+        synchronized (entries) {
+            byX = entries.get(key);
+        }
+        if (byX == null) {
+            misses.increment();
+            byX = new byte[256];
+            int[] coefficients = GF256.lagrangeCoefficients(xs);
+            for (int j = 0; j < xs.length; j++) {
+                byX[xs[j]] = (byte) coefficients[j];
+            }
+            synchronized (entries) {
+                entries.put(key, byX);
+            }
+            return coefficients;
+        }
+        hits.increment();
+        int[] coefficients = new int[xs.length];
+        for (int j = 0; j < xs.length; j++) {
+            coefficients[j] = Byte.toUnsignedInt(byX[xs[j]]);
+        }
+        return coefficients;
+    }
+
+    public Stats stats() {
+        synchronized (entries) {
+            return new Stats(hits.sum(), misses.sum(), evictions.sum(), entries.size());
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto.shamir;
+
+import org.derecalliance.derec.api.DeRecSecret;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits a file into share files, and combines them, through memory mappings so that the secret and shares are
+ * never copied through the heap. Files are mapped a window at a time, so they are not limited to 2 GiB.
+ * <p>
+ * Each window written is forced to storage before the next is mapped, and the files are forced before a split or
+ * combine returns, so a crash afterwards does not lose share data. Java 17 cannot unmap a buffer, so a window stays
+ * mapped until the GC collects it, which in the worst case is the size of the secret and all the share files. Having
+ * been forced, their pages are clean and the OS can reclaim them under memory pressure, so what is held is address
+ * space rather than memory.
+ * <p>
+ * Share files have the same content as the shares from {@link GF256Splitter#split}.
+ */
+public class MappedFileSplitter {
+
+    // bytes of secret mapped at a time
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final GF256Splitter splitter;
+    private final int windowSize;
+
+    public MappedFileSplitter(SecureRandom random, int count, int threshold) {
+        this(new GF256Splitter(random, count, threshold), DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param splitter the splitter that processes each window, e.g. a {@link ParallelSplitter}
+     * @param windowSize bytes of secret mapped at a time
+     */
+    public MappedFileSplitter(GF256Splitter splitter, int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window size must be positive");
+        }
+        this.splitter = splitter;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Split a file
+     * @param id a secret id
+     * @param version a version
+     * @param secret the file to split
+     * @param shares a file per share, created or truncated, share i having x coordinate i + 1
+     * @throws IOException if the files can't be mapped
+     */
+    public void split(DeRecSecret.Id id, int version, Path secret, List<Path> shares) throws IOException {
+        if (shares.size() != splitter.count) {
+            throw new IllegalArgumentException("Need " + splitter.count + " share files, got " + shares.size());
+        }
+        List<FileChannel> channels = new ArrayList<>(shares.size());
+        try (FileChannel in = FileChannel.open(secret, StandardOpenOption.READ)) {
+            long length = in.size();
+            for (int i = 0; i < shares.size(); i++) {
+                FileChannel out = FileChannel.open(shares.get(i), StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                channels.add(out);
+                out.write(ByteBuffer.wrap(new byte[]{(byte) (i + 1)}), ShareFormat.X_OFFSET);
+            }
+            ByteBuffer[] windows = new ByteBuffer[channels.size()];
+            for (long done = 0; done < length; done += windowSize) {
+                int window = (int) Math.min(windowSize, length - done);
+                MappedByteBuffer source = in.map(FileChannel.MapMode.READ_ONLY, done, window);
+                for (int i = 0; i < windows.length; i++) {
+                    windows[i] = channels.get(i).map(FileChannel.MapMode.READ_WRITE,
+                            ShareFormat.PAYLOAD_OFFSET + done, window);
+                }
+                splitter.split(source, 0, window, windows, 0);
+                for (ByteBuffer written : windows) {
+                    ((MappedByteBuffer) written).force();
+                }
+                Arrays.fill(windows, null);
+            }
+            for (FileChannel channel : channels) {
+                // the x coordinate and the file length
+                channel.force(true);
+            }
+        } finally {
+            close(channels);
+        }
+    }
+
+    /**
+     * Combine share files
+     * @param id the secret id
+     * @param version the version
+     * @param shares at least threshold share files
+     * @param secret the file to write, created or truncated
+     * @throws IOException if the files can't be mapped
+     */
+    public void combine(DeRecSecret.Id id, int version, List<Path> shares, Path secret) throws IOException {
+        if (shares.size() < splitter.threshold) {
+            throw new IllegalArgumentException("Need " + splitter.threshold + " shares, got " + shares.size());
+        }
+        List<FileChannel> channels = new ArrayList<>(splitter.threshold);
+        try (FileChannel out = FileChannel.open(secret, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            int[] xs = new int[splitter.threshold];
+            boolean[] seen = new boolean[256];
+            long shareLength = -1;
+            for (int j = 0; j < xs.length; j++) {
+                FileChannel in = FileChannel.open(shares.get(j), StandardOpenOption.READ);
+                channels.add(in);
+                if (shareLength != -1 && in.size() != shareLength) {
+                    throw new IllegalArgumentException("Varying lengths of shares");
+                }
+                shareLength = in.size();
+                ByteBuffer x = ByteBuffer.allocate(1);
+                if (shareLength < ShareFormat.PAYLOAD_OFFSET || in.read(x, ShareFormat.X_OFFSET) != 1) {
+                    throw new IllegalArgumentException("Share " + shares.get(j) + " is empty");
+                }
+                xs[j] = Byte.toUnsignedInt(x.get(0));
+                if (xs[j] == 0 || seen[xs[j]]) {
+                    throw new IllegalArgumentException("Invalid or duplicate share " + xs[j]);
+                }
+                seen[xs[j]] = true;
+            }
+            int[] coefficients = splitter.lagrangeCache.coefficients(xs);
+
+            long length = shareLength - ShareFormat.PAYLOAD_OFFSET;
+            ByteBuffer[] windows = new ByteBuffer[channels.size()];
+            for (long done = 0; done < length; done += windowSize) {
+                int window = (int) Math.min(windowSize, length - done);
+                for (int j = 0; j < windows.length; j++) {
+                    windows[j] = channels.get(j).map(FileChannel.MapMode.READ_ONLY,
+                            ShareFormat.PAYLOAD_OFFSET + done, window);
+                }
+                MappedByteBuffer target = out.map(FileChannel.MapMode.READ_WRITE, done, window);
+                splitter.combine(coefficients, windows, 0, target, 0, window);
+                target.force();
+                Arrays.fill(windows, null);
+            }
+            out.force(true);
+        } finally {
+            close(channels);
+        }
+    }
+
+    private static void close(List<FileChannel> channels) throws IOException {
+        IOException failure = null;
+        for (FileChannel channel : channels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
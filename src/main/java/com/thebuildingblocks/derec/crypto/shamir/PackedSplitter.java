@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto.shamir;
+
+import com.thebuildingblocks.derec.crypto.ShamirInterfaces;
+import org.derecalliance.derec.api.DeRecSecret;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Packed (ramp) secret sharing: each polynomial carries {@code packing} secret bytes rather than one, so shares are
+ * {@code packing} times smaller than the secret and each share costs {@code privacy + packing} multiply-accumulates
+ * per {@code packing} secret bytes.
+ * <p>
+ * The secret is padded and cut into {@code packing} blocks. Column c of the polynomials takes the value of byte c
+ * of block i at x = 255 - i and a random value at each of {@code privacy} further points below those, and shares
+ * are the values at x = 1..count. The price is a gap between privacy and reconstruction: any {@code privacy}
+ * shares reveal nothing, {@code privacy + packing} are needed to combine, and between the two some information
+ * about the secret is revealed.
+ * <p>
+ * Shares have the usual [x][payload] format but are not compatible with the other splitters.
+ */
+public class PackedSplitter implements ShamirInterfaces.Splitter {
+    // marks the end of the secret in the padded secret, followed by zeros
+    private static final byte PADDING_MARK = (byte) 0x80;
+
+    final SecureRandom random;
+    final int count;
+    final int privacy;
+    final int packing;
+    final GF256Kernel kernel;
+    // the x coordinates at which the secret blocks are placed
+    private final int[] secretXs;
+    // for each share, its coefficients with respect to the secret blocks then the random rows
+    private final int[][] shareCoefficients;
+
+    /**
+     * @param random a random number generator
+     * @param count the number of shares to produce
+     * @param privacy the number of shares that reveal nothing about the secret
+     * @param packing the number of secret bytes per polynomial, the reconstruction threshold is privacy + packing
+     */
+    public PackedSplitter(SecureRandom random, int count, int privacy, int packing) {
+        this(random, count, privacy, packing, GF256Kernel.DEFAULT);
+    }
+
+    PackedSplitter(SecureRandom random, int count, int privacy, int packing, GF256Kernel kernel) {
+        if (privacy < 1 || packing < 1 || count < privacy + packing || count + privacy + packing > 255) {
+            throw new IllegalArgumentException("Need 1 <= privacy, 1 <= packing, privacy + packing <= count and "
+                    + "count + privacy + packing <= 255, got count " + count + " privacy " + privacy + " packing "
+                    + packing);
+        }
+        this.random = random;
+        this.count = count;
+        this.privacy = privacy;
+        this.packing = packing;
+        this.kernel = kernel;
+        // secret blocks then random rows at the top of the field, clear of the share xs 1..count
+        int[] definingXs = new int[packing + privacy];
+        for (int p = 0; p < definingXs.length; p++) {
+            definingXs[p] = 255 - p;
+        }
+        this.secretXs = Arrays.copyOf(definingXs, packing);
+        this.shareCoefficients = new int[count][];
+        for (int i = 0; i < count; i++) {
+            shareCoefficients[i] = GF256.lagrangeCoefficients(definingXs, i + 1);
+        }
+    }
+
+    /**
+     * A factory taking the threshold as the reconstruction threshold, privacy being threshold - packing
+     * @param packing the number of secret bytes per polynomial
+     * @return a factory
+     */
+    public static ShamirInterfaces.SplitterFactory factory(int packing) {
+        return (random, count, threshold) -> new PackedSplitter(random, count, threshold - packing, packing);
+    }
+
+    /**
+     * @return the number of shares needed to combine
+     */
+    public int threshold() {
+        return privacy + packing;
+    }
+
+    /**
+     * @param secretLength length of a secret
+     * @return the length of each of its shares, including the x coordinate
+     */
+    public int shareLength(int secretLength) {
+        return ShareFormat.PAYLOAD_OFFSET + blockLength(secretLength);
+    }
+
+    private int blockLength(int secretLength) {
+        // at least one byte of padding
+        return secretLength / packing + 1;
+    }
+
+    @Override
+    public List<byte[]> split(DeRecSecret.Id id, int version, byte[] secret) {
+        int blockLength = blockLength(secret.length);
+        byte[] padded = Arrays.copyOf(secret, packing * blockLength);
+        padded[secret.length] = PADDING_MARK;
+        byte[] randoms = new byte[Math.multiplyExact(privacy, blockLength)];
+        random.nextBytes(randoms);
+
+        // the defining values, the secret blocks then the random rows, all of blockLength
+        ByteBuffer[] rows = new ByteBuffer[packing + privacy];
+        for (int i = 0; i < packing; i++) {
+            rows[i] = ByteBuffer.wrap(padded, i * blockLength, blockLength).slice();
+        }
+        for (int j = 0; j < privacy; j++) {
+            rows[packing + j] = ByteBuffer.wrap(randoms, j * blockLength, blockLength).slice();
+        }
+        List<byte[]> shares = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] share = new byte[ShareFormat.PAYLOAD_OFFSET + blockLength];
+            share[ShareFormat.X_OFFSET] = (byte) (i + 1);
+            GF256Splitter.interpolate(kernel, shareCoefficients[i], rows, 0, ByteBuffer.wrap(share),
+                    ShareFormat.PAYLOAD_OFFSET, blockLength);
+            shares.add(share);
+        }
+        Arrays.fill(padded, (byte) 0);
+        Arrays.fill(randoms, (byte) 0);
+        return shares;
+    }
+
+    @Override
+    public byte[] combine(DeRecSecret.Id id, int version, List<byte[]> shares) {
+        List<byte[]> parts = GF256Splitter.checkShares(shares, threshold());
+        int blockLength = ShareFormat.payloadLength(parts.get(0));
+        int[] xs = GF256Splitter.xs(parts);
+        for (int x : xs) {
+            if (x > count) {
+                throw new IllegalArgumentException("Share " + x + " is not one of " + count);
+            }
+        }
+        ByteBuffer[] buffers = new ByteBuffer[parts.size()];
+        for (int j = 0; j < buffers.length; j++) {
+            buffers[j] = ByteBuffer.wrap(parts.get(j));
+        }
+        byte[] padded = new byte[packing * blockLength];
+        ByteBuffer paddedBuffer = ByteBuffer.wrap(padded);
+        for (int i = 0; i < packing; i++) {
+            GF256Splitter.interpolate(kernel, GF256.lagrangeCoefficients(xs, secretXs[i]), buffers,
+                    ShareFormat.PAYLOAD_OFFSET, paddedBuffer, i * blockLength, blockLength);
+        }
+        int end = padded.length - 1;
+        while (end >= 0 && padded[end] == 0) {
+            end--;
+        }
+        if (end < 0 || padded[end] != PADDING_MARK) {
+            Arrays.fill(padded, (byte) 0);
+            throw new IllegalArgumentException("Shares do not combine to a padded secret");
+        }
+        byte[] secret = Arrays.copyOf(padded, end);
+        Arrays.fill(padded, (byte) 0);
+        return secret;
+    }
+
+    /**
+     * Split several secrets together, as one length prefixed sequence, so that small secrets share polynomials
+     * @param id an id for the group of secrets
+     * @param version a version
+     * @param secrets the secrets
+     * @return shares of them all
+     */
+    public List<byte[]> splitAll(DeRecSecret.Id id, int version, List<byte[]> secrets) {
+        int length = 0;
+        for (byte[] secret : secrets) {
+            length = Math.addExact(length, Integer.BYTES + secret.length);
+        }
+        ByteBuffer sequence = ByteBuffer.allocate(length);
+        for (byte[] secret : secrets) {
+            sequence.putInt(secret.length).put(secret);
+        }
+        try {
+            return split(id, version, sequence.array());
+        } finally {
+            Arrays.fill(sequence.array(), (byte) 0);
+        }
+    }
+
+    /**
+     * @param id the id for the group of secrets
+     * @param version the version
+     * @param shares shares from {@link #splitAll}
+     * @return the secrets, in the order given to {@link #splitAll}
+     */
+    public List<byte[]> combineAll(DeRecSecret.Id id, int version, List<byte[]> shares) {
+        byte[] combined = combine(id, version, shares);
+        try {
+            ByteBuffer sequence = ByteBuffer.wrap(combined);
+            List<byte[]> secrets = new ArrayList<>();
+            while (sequence.hasRemaining()) {
+                int length = sequence.getInt();
+                if (length < 0 || length > sequence.remaining()) {
+                    throw new IllegalArgumentException("Malformed sequence of secrets");
+                }
+                byte[] secret = new byte[length];
+                sequence.get(secret);
+                secrets.add(secret);
+            }
+            return secrets;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Malformed sequence of secrets", e);
+        } finally {
+            Arrays.fill(combined, (byte) 0);
+        }
+    }
+}
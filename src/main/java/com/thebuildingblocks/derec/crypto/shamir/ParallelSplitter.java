@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto.shamir;
+
+import com.thebuildingblocks.derec.crypto.ShamirInterfaces;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * {@link GF256Splitter} that splits and combines large secrets on a {@link ForkJoinPool}. Each column of the
+ * secret is independent, so the columns are divided into ranges of a few cache sized blocks and processed in
+ * parallel. Secrets shorter than the sequential threshold are processed on the calling thread.
+ */
+public class ParallelSplitter extends GF256Splitter {
+
+    public static final ShamirInterfaces.SplitterFactory FACTORY = ParallelSplitter::new;
+
+    // below this many bytes splitting is not worth forking
+    public static final int DEFAULT_SEQUENTIAL_THRESHOLD = 64 * 1024;
+
+    // columns handled by one task
+    static final int TASK_SIZE = 4 * BLOCK_SIZE;
+
+    private final ForkJoinPool pool;
+    private final int sequentialThreshold;
+
+    public ParallelSplitter(SecureRandom random, int count, int threshold) {
+        this(random, count, threshold, ForkJoinPool.commonPool(), DEFAULT_SEQUENTIAL_THRESHOLD);
+    }
+
+    /**
+     * @param random a random number generator, shared by the tasks
+     * @param count the number of shares to produce
+     * @param threshold the recombination threshold
+     * @param pool the pool to run on
+     * @param sequentialThreshold secrets shorter than this are not split in parallel
+     */
+    public ParallelSplitter(SecureRandom random, int count, int threshold, ForkJoinPool pool,
+                            int sequentialThreshold) {
+        super(random, count, threshold);
+        this.pool = pool;
+        this.sequentialThreshold = sequentialThreshold;
+    }
+
+    @Override
+    void split(ByteBuffer secret, int secretOffset, int length, ByteBuffer[] shares, int shareOffset) {
+        if (length < sequentialThreshold) {
+            super.split(secret, secretOffset, length, shares, shareOffset);
+        } else {
+            pool.invoke(new SplitTask(secret, secretOffset, length, shares, shareOffset));
+        }
+    }
+
+    @Override
+    void combine(int[] coefficients, ByteBuffer[] shares, int shareOffset, ByteBuffer secret, int secretOffset,
+                 int length) {
+        if (length < sequentialThreshold) {
+            super.combine(coefficients, shares, shareOffset, secret, secretOffset, length);
+        } else {
+            pool.invoke(new CombineTask(coefficients, shares, shareOffset, secret, secretOffset, length));
+        }
+    }
+
+    /**
+     * @param length a number of columns
+     * @return where to divide them, on a block boundary
+     */
+    static int half(int length) {
+        return (length / 2 + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+    }
+
+    @SuppressWarnings("serial")
+    class SplitTask extends RecursiveAction {
+        final ByteBuffer secret;
+        final int secretOffset;
+        final int length;
+        final ByteBuffer[] shares;
+        final int shareOffset;
+
+        SplitTask(ByteBuffer secret, int secretOffset, int length, ByteBuffer[] shares, int shareOffset) {
+            this.secret = secret;
+            this.secretOffset = secretOffset;
+            this.length = length;
+            this.shares = shares;
+            this.shareOffset = shareOffset;
+        }
+
+        @Override
+        protected void compute() {
+            if (length <= TASK_SIZE) {
+                ParallelSplitter.super.split(secret, secretOffset, length, shares, shareOffset);
+                return;
+            }
+            int half = half(length);
+            invokeAll(new SplitTask(secret, secretOffset, half, shares, shareOffset),
+                    new SplitTask(secret, secretOffset + half, length - half, shares, shareOffset + half));
+        }
+    }
+
+    @SuppressWarnings("serial")
+    class CombineTask extends RecursiveAction {
+        final int[] coefficients;
+        final ByteBuffer[] shares;
+        final int shareOffset;
+        final ByteBuffer secret;
+        final int secretOffset;
+        final int length;
+
+        CombineTask(int[] coefficients, ByteBuffer[] shares, int shareOffset, ByteBuffer secret, int secretOffset,
+                    int length) {
+            this.coefficients = coefficients;
+            this.shares = shares;
+            this.shareOffset = shareOffset;
+            this.secret = secret;
+            this.secretOffset = secretOffset;
+            this.length = length;
+        }
+
+        @Override
+        protected void compute() {
+            if (length <= TASK_SIZE) {
+                ParallelSplitter.super.combine(coefficients, shares, shareOffset, secret, secretOffset, length);
+                return;
+            }
+            int half = half(length);
+            invokeAll(new CombineTask(coefficients, shares, shareOffset, secret, secretOffset, half),
+                    new CombineTask(coefficients, shares, shareOffset + half, secret, secretOffset + half,
+                            length - half));
+        }
+    }
+}
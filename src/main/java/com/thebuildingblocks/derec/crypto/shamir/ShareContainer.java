@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto.shamir;
+
+import org.derecalliance.derec.api.DeRecSecret;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32C;
+
+/**
+ * A share with the metadata needed to store and route it, in a compact binary form
+ * <pre>
+ * offset  length  field
+ *      0       2  magic 0xDE5C
+ *      2       1  format version
+ *      3       1  id length, m
+ *      4       4  secret version
+ *      8       1  x coordinate
+ *      9       1  threshold, k
+ *     10       1  number of shares, n
+ *     11       1  reserved, 0
+ *     12       4  payload length
+ *     16       4  CRC32C of everything else
+ *     20       m  secret id
+ *   20+m          payload
+ * </pre>
+ * Integers are big endian. A container is read by {@link #wrap}, which reads only the header; the id and payload
+ * are views of the underlying buffer, so helpers can index and route shares without touching the payload.
+ */
+public final class ShareContainer {
+    public static final short MAGIC = (short) 0xDE5C;
+    public static final byte FORMAT_VERSION = 1;
+    public static final int HEADER_LENGTH = 20;
+    public static final int MAX_ID_LENGTH = 255;
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int FORMAT_VERSION_OFFSET = 2;
+    private static final int ID_LENGTH_OFFSET = 3;
+    private static final int VERSION_OFFSET = 4;
+    private static final int X_OFFSET = 8;
+    private static final int THRESHOLD_OFFSET = 9;
+    private static final int COUNT_OFFSET = 10;
+    private static final int PAYLOAD_LENGTH_OFFSET = 12;
+    private static final int CHECKSUM_OFFSET = 16;
+
+    private final ByteBuffer buffer;
+    private final int idLength;
+    private final int version;
+    private final int x;
+    private final int threshold;
+    private final int count;
+    private final int payloadLength;
+    private final int checksum;
+
+    private ShareContainer(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.idLength = Byte.toUnsignedInt(buffer.get(ID_LENGTH_OFFSET));
+        this.version = buffer.getInt(VERSION_OFFSET);
+        this.x = Byte.toUnsignedInt(buffer.get(X_OFFSET));
+        this.threshold = Byte.toUnsignedInt(buffer.get(THRESHOLD_OFFSET));
+        this.count = Byte.toUnsignedInt(buffer.get(COUNT_OFFSET));
+        this.payloadLength = buffer.getInt(PAYLOAD_LENGTH_OFFSET);
+        this.checksum = buffer.getInt(CHECKSUM_OFFSET);
+    }
+
+    /**
+     * Read the header of the container at the buffer's position, without copying or checksumming. The buffer's
+     * position is advanced past the container so that consecutive containers can be read in turn.
+     * @param buffer a buffer holding at least one container
+     * @return the container
+     * @throws IllegalArgumentException if the header is malformed or the buffer too short
+     */
+    public static ShareContainer wrap(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_LENGTH) {
+            throw new IllegalArgumentException("Share container header truncated");
+        }
+        ByteBuffer header = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+        if (header.getShort(MAGIC_OFFSET) != MAGIC) {
+            throw new IllegalArgumentException("Not a share container");
+        }
+        byte format = header.get(FORMAT_VERSION_OFFSET);
+        if (format != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported share container format " + format);
+        }
+        int idLength = Byte.toUnsignedInt(header.get(ID_LENGTH_OFFSET));
+        int payloadLength = header.getInt(PAYLOAD_LENGTH_OFFSET);
+        if (payloadLength < 0 || header.remaining() - HEADER_LENGTH - idLength < payloadLength) {
+            throw new IllegalArgumentException("Share container truncated");
+        }
+        if (header.get(X_OFFSET) == 0) {
+            throw new IllegalArgumentException("Share container has x coordinate 0");
+        }
+        int threshold = Byte.toUnsignedInt(header.get(THRESHOLD_OFFSET));
+        if (threshold == 0 || threshold > Byte.toUnsignedInt(header.get(COUNT_OFFSET))) {
+            throw new IllegalArgumentException("Share container needs 1 <= threshold <= count");
+        }
+        int length = HEADER_LENGTH + idLength + payloadLength;
+        buffer.position(buffer.position() + length);
+        return new ShareContainer(header.limit(length));
+    }
+
+    /**
+     * @param idLength length of the secret id
+     * @param payloadLength length of the secret
+     * @return the size of a container
+     */
+    public static int encodedLength(int idLength, int payloadLength) {
+        return Math.addExact(HEADER_LENGTH + idLength, payloadLength);
+    }
+
+    /**
+     * Write a container at the buffer's position, advancing it
+     * @param id the secret id
+     * @param version the secret version
+     * @param threshold the number of shares needed to combine
+     * @param count the number of shares made
+     * @param x the x coordinate of this share
+     * @param payload the y values, from position to limit, which is not changed
+     * @param out where to write
+     * @return a container over what was written
+     */
+    public static ShareContainer encode(DeRecSecret.Id id, int version, int threshold, int count, int x,
+                                        ByteBuffer payload, ByteBuffer out) {
+        byte[] idBytes = id == null ? new byte[0] : id.getBytes();
+        if (idBytes.length > MAX_ID_LENGTH) {
+            throw new IllegalArgumentException("Secret id longer than " + MAX_ID_LENGTH);
+        }
+        if (x < 1 || x > 255 || threshold < 1 || threshold > 255 || count < threshold || count > 255) {
+            throw new IllegalArgumentException("Need 1 <= x <= 255 and 1 <= threshold <= count <= 255");
+        }
+        int length = encodedLength(idBytes.length, payload.remaining());
+        ByteBuffer container = out.slice().order(ByteOrder.BIG_ENDIAN).limit(length);
+        container.putShort(MAGIC_OFFSET, MAGIC)
+                .put(FORMAT_VERSION_OFFSET, FORMAT_VERSION)
+                .put(ID_LENGTH_OFFSET, (byte) idBytes.length)
+                .putInt(VERSION_OFFSET, version)
+                .put(X_OFFSET, (byte) x)
+                .put(THRESHOLD_OFFSET, (byte) threshold)
+                .put(COUNT_OFFSET, (byte) count)
+                .put(COUNT_OFFSET + 1, (byte) 0)
+                .putInt(PAYLOAD_LENGTH_OFFSET, payload.remaining())
+                .put(HEADER_LENGTH, idBytes)
+                .put(HEADER_LENGTH + idBytes.length, payload, payload.position(), payload.remaining());
+        container.putInt(CHECKSUM_OFFSET, checksum(container));
+        out.position(out.position() + length);
+        return new ShareContainer(container);
+    }
+
+    /**
+     * Encode a share as returned by {@link com.thebuildingblocks.derec.crypto.ShamirInterfaces.Splitter#split}
+     * @param id the secret id
+     * @param version the secret version
+     * @param threshold the number of shares needed to combine
+     * @param count the number of shares made
+     * @param share the share
+     * @return the container
+     */
+    public static byte[] encode(DeRecSecret.Id id, int version, int threshold, int count, byte[] share) {
+        int idLength = id == null ? 0 : id.getBytes().length;
+        byte[] out = new byte[encodedLength(idLength, ShareFormat.payloadLength(share))];
+        ByteBuffer payload = ByteBuffer.wrap(share, ShareFormat.PAYLOAD_OFFSET, ShareFormat.payloadLength(share));
+        encode(id, version, threshold, count, ShareFormat.x(share), payload, ByteBuffer.wrap(out));
+        return out;
+    }
+
+    private static int checksum(ByteBuffer container) {
+        CRC32C crc = new CRC32C();
+        crc.update(container.slice(0, CHECKSUM_OFFSET));
+        crc.update(container.slice(HEADER_LENGTH, container.limit() - HEADER_LENGTH));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @return a view of the id bytes, which has content based equality and so can be used as a key
+     */
+    public ByteBuffer idBytes() {
+        return buffer.slice(HEADER_LENGTH, idLength).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return a copy of the id, null if it is empty
+     */
+    public DeRecSecret.Id id() {
+        if (idLength == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[idLength];
+        buffer.get(HEADER_LENGTH, bytes);
+        return new DeRecSecret.Id(bytes);
+    }
+
+    public int version() {
+        return version;
+    }
+
+    public int x() {
+        return x;
+    }
+
+    public int threshold() {
+        return threshold;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public int payloadLength() {
+        return payloadLength;
+    }
+
+    public int encodedLength() {
+        return buffer.limit();
+    }
+
+    /**
+     * @return a view of the y values, without copying
+     */
+    public ByteBuffer payload() {
+        return buffer.slice(HEADER_LENGTH + idLength, payloadLength);
+    }
+
+    /**
+     * @return a view of the whole container
+     */
+    public ByteBuffer encoded() {
+        // not clear(), the capacity runs on over any containers that follow in the same buffer
+        return buffer.slice(0, buffer.limit());
+    }
+
+    /**
+     * @return true if the checksum matches, reads the whole container
+     */
+    public boolean isValid() {
+        return checksum(buffer) == checksum;
+    }
+
+    /**
+     * @return a copy of the share in the form taken by
+     * {@link com.thebuildingblocks.derec.crypto.ShamirInterfaces.Splitter#combine}
+     * @throws IllegalArgumentException if the checksum does not match
+     */
+    public byte[] toShare() {
+        if (!isValid()) {
+            throw new IllegalArgumentException("Share container checksum mismatch");
+        }
+        byte[] share = new byte[ShareFormat.PAYLOAD_OFFSET + payloadLength];
+        share[ShareFormat.X_OFFSET] = (byte) x;
+        buffer.get(HEADER_LENGTH + idLength, share, ShareFormat.PAYLOAD_OFFSET, payloadLength);
+        return share;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto.shamir;
+
+import com.thebuildingblocks.derec.crypto.secret.SecretBuffer;
+
+import java.util.Arrays;
+
+/**
+ * Encoding of a share as its x coordinate followed by its payload
+ */
+final class ShareFormat {
+    static final int X_OFFSET = 0;
+    static final int PAYLOAD_OFFSET = 1;
+
+    private ShareFormat() {
+    }
+
+    /**
+     * Prefix a payload with its x coordinate
+     * @param x the x coordinate 1..255
+     * @param payload the y values
+     * @return an encoded share
+     */
+    static byte[] encode(int x, byte[] payload) {
+        byte[] share = new byte[PAYLOAD_OFFSET + payload.length];
+        share[X_OFFSET] = (byte) x;
+        System.arraycopy(payload, 0, share, PAYLOAD_OFFSET, payload.length);
+        return share;
+    }
+
+    /**
+     * @param share an encoded share
+     * @return its x coordinate
+     */
+    static int x(byte[] share) {
+        checkShare(share);
+        return Byte.toUnsignedInt(share[X_OFFSET]);
+    }
+
+    /**
+     * @param share an encoded share
+     * @return a copy of its y values
+     */
+    static byte[] payload(byte[] share) {
+        checkShare(share);
+        return Arrays.copyOfRange(share, PAYLOAD_OFFSET, share.length);
+    }
+
+    /**
+     * @param share an encoded share
+     * @return the number of y values it holds i.e. the length of the secret
+     */
+    static int payloadLength(byte[] share) {
+        checkShare(share);
+        return share.length - PAYLOAD_OFFSET;
+    }
+
+    /**
+     * @param share an encoded share held off heap
+     * @return its x coordinate
+     */
+    static int x(SecretBuffer share) {
+        checkShare(share);
+        return Byte.toUnsignedInt(share.get(X_OFFSET));
+    }
+
+    /**
+     * @param share an encoded share held off heap
+     * @return the number of y values it holds i.e. the length of the secret
+     */
+    static int payloadLength(SecretBuffer share) {
+        checkShare(share);
+        return share.length() - PAYLOAD_OFFSET;
+    }
+
+    static void checkShare(SecretBuffer share) {
+        if (share == null || share.length() < PAYLOAD_OFFSET || share.get(X_OFFSET) == 0) {
+            throw new IllegalArgumentException("Share must start with a non-zero x coordinate");
+        }
+    }
+
+    static void checkShare(byte[] share) {
+        if (share == null || share.length < PAYLOAD_OFFSET || share[X_OFFSET] == 0) {
+            throw new IllegalArgumentException("Share must start with a non-zero x coordinate");
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto.shamir;
+
+import com.thebuildingblocks.derec.crypto.ShamirInterfaces.SplitterFactory;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The available splitter implementations, by name
+ */
+public final class Splitters {
+
+    /**
+     * Predefined splitter factories, names are used to select implementations in benchmarks
+     * <p>
+     * "gf256" uses the default kernel, the others force a kernel, "gf256-vector" is only present when the
+     * Vector API is available
+     */
+    public static final Map<String, SplitterFactory> SPLITTER_FACTORY_MAP = splitterFactories();
+
+    /**
+     * Name of the splitter that chooses among the others per workload, see {@link AdaptiveSplitterFactory}
+     */
+    public static final String ADAPTIVE = "adaptive";
+
+    private Splitters() {
+    }
+
+    private static Map<String, SplitterFactory> splitterFactories() {
+        Map<String, SplitterFactory> factories = new LinkedHashMap<>();
+        factories.put("codahale", CodahaleSplitter.FACTORY);
+        factories.put("gf256", GF256Splitter.FACTORY);
+        factories.put("gf256-table", gf256(GF256Kernel.TABLE));
+        factories.put("gf256-swar", gf256(GF256Kernel.SWAR));
+        if (GF256Kernel.VECTOR != null) {
+            factories.put("gf256-vector", gf256(GF256Kernel.VECTOR));
+        }
+        factories.put("gf256-parallel", ParallelSplitter.FACTORY);
+        // deferred, the adaptive factory's candidates are the entries of this map
+        factories.put(ADAPTIVE, (random, count, threshold) ->
+                AdaptiveSplitterFactory.DEFAULT.newSplitter(random, count, threshold));
+        return Collections.unmodifiableMap(factories);
+    }
+
+    private static SplitterFactory gf256(GF256Kernel kernel) {
+        return (random, count, threshold) ->
+                new GF256Splitter(random, count, threshold, kernel, LagrangeCache.SHARED);
+    }
+
+    /**
+     * Look up a factory by name
+     * @param name one of the keys of {@link #SPLITTER_FACTORY_MAP}
+     * @return the factory
+     */
+    public static SplitterFactory factory(String name) {
+        SplitterFactory factory = SPLITTER_FACTORY_MAP.get(name);
+        if (factory == null) {
+            throw new IllegalArgumentException("Unknown splitter " + name);
+        }
+        return factory;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.thebuildingblocks.derec.crypto.shamir;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Vector API kernel, multiplying by a constant as two 16 entry table lookups, one for each nibble, done as a
+ * lane shuffle. Only loaded when {@code jdk.incubator.vector} is present, see {@link GF256Kernel#VECTOR}.
+ * <p>
+ * Heap buffers are processed through their arrays, on Java 17 C2 does not always intrinsify
+ * {@code fromByteBuffer} and the vectors are then boxed, which is many times slower than SWAR.
+ */
+class VectorKernel extends GF256Kernel {
+    static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+    static final int LANES = SPECIES.length();
+    static final ByteOrder ORDER = ByteOrder.nativeOrder();
+
+    // for constant c, LOW_NIBBLE[c * LANES + i] = c * i and HIGH_NIBBLE[c * LANES + i] = c * (i << 4), i < 16
+    static final byte[] LOW_NIBBLE = new byte[256 * LANES];
+    static final byte[] HIGH_NIBBLE = new byte[256 * LANES];
+
+    static {
+        if (isSupported()) {
+            for (int c = 0; c < 256; c++) {
+                for (int i = 0; i < 16; i++) {
+                    LOW_NIBBLE[c * LANES + i] = (byte) GF256.mul(c, i);
+                    HIGH_NIBBLE[c * LANES + i] = (byte) GF256.mul(c, i << 4);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if a vector is wide enough to hold a nibble table
+     */
+    static boolean isSupported() {
+        return LANES >= 16;
+    }
+
+    @Override
+    void horner(ByteBuffer acc, int accOffset, int x, ByteBuffer src, int srcOffset, int length) {
+        if (acc.hasArray() && src.hasArray()) {
+            horner(acc.array(), acc.arrayOffset() + accOffset, x, src.array(), src.arrayOffset() + srcOffset,
+                    length);
+            return;
+        }
+        ByteVector low = ByteVector.fromArray(SPECIES, LOW_NIBBLE, x * LANES);
+        ByteVector high = ByteVector.fromArray(SPECIES, HIGH_NIBBLE, x * LANES);
+        int i = 0;
+        for (; i <= length - LANES; i += LANES) {
+            ByteVector a = ByteVector.fromByteBuffer(SPECIES, acc, accOffset + i, ORDER);
+            ByteVector s = ByteVector.fromByteBuffer(SPECIES, src, srcOffset + i, ORDER);
+            mul(a, low, high).lanewise(VectorOperators.XOR, s).intoByteBuffer(acc, accOffset + i, ORDER);
+        }
+        SWAR.horner(acc, accOffset + i, x, src, srcOffset + i, length - i);
+    }
+
+    void horner(byte[] acc, int accOffset, int x, byte[] src, int srcOffset, int length) {
+        ByteVector low = ByteVector.fromArray(SPECIES, LOW_NIBBLE, x * LANES);
+        ByteVector high = ByteVector.fromArray(SPECIES, HIGH_NIBBLE, x * LANES);
+        int i = 0;
+        for (; i <= length - LANES; i += LANES) {
+            ByteVector a = ByteVector.fromArray(SPECIES, acc, accOffset + i);
+            ByteVector s = ByteVector.fromArray(SPECIES, src, srcOffset + i);
+            mul(a, low, high).lanewise(VectorOperators.XOR, s).intoArray(acc, accOffset + i);
+        }
+        for (; i < length; i++) {
+            int a = Byte.toUnsignedInt(acc[accOffset + i]);
+            acc[accOffset + i] = (byte) (GF256.MUL[(x << 8) | a] ^ src[srcOffset + i]);
+        }
+    }
+
+    @Override
+    void mulAccumulate(ByteBuffer acc, int accOffset, int c, ByteBuffer src, int srcOffset, int length) {
+        if (acc.hasArray() && src.hasArray()) {
+            mulAccumulate(acc.array(), acc.arrayOffset() + accOffset, c, src.array(),
+                    src.arrayOffset() + srcOffset, length);
+            return;
+        }
+        ByteVector low = ByteVector.fromArray(SPECIES, LOW_NIBBLE, c * LANES);
+        ByteVector high = ByteVector.fromArray(SPECIES, HIGH_NIBBLE, c * LANES);
+        int i = 0;
+        for (; i <= length - LANES; i += LANES) {
+            ByteVector a = ByteVector.fromByteBuffer(SPECIES, acc, accOffset + i, ORDER);
+            ByteVector s = ByteVector.fromByteBuffer(SPECIES, src, srcOffset + i, ORDER);
+            a.lanewise(VectorOperators.XOR, mul(s, low, high)).intoByteBuffer(acc, accOffset + i, ORDER);
+        }
+        SWAR.mulAccumulate(acc, accOffset + i, c, src, srcOffset + i, length - i);
+    }
+
+    void mulAccumulate(byte[] acc, int accOffset, int c, byte[] src, int srcOffset, int length) {
+        ByteVector low = ByteVector.fromArray(SPECIES, LOW_NIBBLE, c * LANES);
+        ByteVector high = ByteVector.fromArray(SPECIES, HIGH_NIBBLE, c * LANES);
+        int i = 0;
+        for (; i <= length - LANES; i += LANES) {
+            ByteVector a = ByteVector.fromArray(SPECIES, acc, accOffset + i);
+            ByteVector s = ByteVector.fromArray(SPECIES, src, srcOffset + i);
+            a.lanewise(VectorOperators.XOR, mul(s, low, high)).intoArray(acc, accOffset + i);
+        }
+        for (; i < length; i++) {
+            int s = Byte.toUnsignedInt(src[srcOffset + i]);
+            acc[accOffset + i] ^= GF256.MUL[(c << 8) | s];
+        }
+    }
+
+    /**
+     * multiply each lane by the constant whose nibble tables are given
+     */
+    static ByteVector mul(ByteVector v, ByteVector low, ByteVector high) {
+        ByteVector l = v.and((byte) 0x0f).selectFrom(low);
+        ByteVector h = v.lanewise(VectorOperators.LSHR, 4).selectFrom(high);
+        return l.lanewise(VectorOperators.XOR, h);
+    }
+
+    @Override
+    String name() {
+        return "vector";
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2023 The Building Blocks Limited.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Implementations of {@link com.thebuildingblocks.derec.crypto.ShamirInterfaces.Splitter}
+ * <p>
+ * A share is a byte array whose first byte is the share's x coordinate (1..255) and whose remaining bytes are the
+ * values of the sharing polynomials at that x, one per byte of the secret, over GF(256) with the AES polynomial. This
+ * is the same arithmetic as {@link com.codahale.shamir.Scheme}, so the payload of a share is interchangeable with
+ * the corresponding entry of {@code Scheme.split}.
+ */
+package com.thebuildingblocks.derec.crypto.shamir;
@@ -17,6 +17,7 @@
 
 package com.thebuildingblocks.derec.crypto.util;
 
+import com.thebuildingblocks.derec.crypto.provider.ProviderPolicy;
 import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.asn1.x509.Extension;
 import org.bouncycastle.asn1.x509.KeyUsage;
@@ -25,7 +26,6 @@ import org.bouncycastle.cert.CertIOException;
 import org.bouncycastle.cert.X509CertificateHolder;
 import org.bouncycastle.cert.X509v3CertificateBuilder;
 import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.operator.ContentSigner;
 import org.bouncycastle.operator.OperatorCreationException;
 import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
@@ -38,11 +38,6 @@ import java.time.ZonedDateTime;
 import java.util.Date;
 
 public class Crypto {
-    static Provider bcProvider = new BouncyCastleProvider();
-
-    static {
-        Security.addProvider(bcProvider);
-    }
 
     public static KeyPair generateKeyPair(String keyPairAlgorithm, int keySize) throws NoSuchAlgorithmException {
         KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(keyPairAlgorithm);
@@ -70,8 +65,10 @@ public class Crypto {
         certificateBuilder.addExtension(Extension.keyUsage,true, new KeyUsage(KeyUsage.dataEncipherment
                 | KeyUsage.keyEncipherment | KeyUsage.keyAgreement | KeyUsage.digitalSignature));
 
+        // Bouncy Castle unless the policy chooses for this algorithm
+        Provider provider = ProviderPolicy.DEFAULT.provider("Signature", signatureAlgorithm);
         ContentSigner contentSigner = new JcaContentSignerBuilder(signatureAlgorithm)
-                .setProvider(bcProvider)
+                .setProvider(provider == null ? ProviderPolicy.bouncyCastle() : provider)
                 .build(keyPair.getPrivate());
 
         X509CertificateHolder certificateHolder = certificateBuilder.build(contentSigner);
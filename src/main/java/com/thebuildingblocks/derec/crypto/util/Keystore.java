@@ -17,7 +17,6 @@
 
 package com.thebuildingblocks.derec.crypto.util;
 
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.operator.OperatorCreationException;
 
 import java.io.FileInputStream;
@@ -41,13 +40,6 @@ public class Keystore {
     public static final String KEY_PAIR_ALGORITHM = "RSA";
     public static final int KEY_SIZE = 2048;
 
-    static Provider bcProvider = new BouncyCastleProvider();
-
-    static {
-        Security.addProvider(bcProvider);
-    }
-
-
     public static void main(String[] args) throws Exception {
         KeyPair generatedKeyPair = generateKeyPair(KEY_PAIR_ALGORITHM, KEY_SIZE);
 
@@ -1,16 +1,54 @@
 package com.thebuildingblocks.derec;
 
+import com.thebuildingblocks.derec.crypto.Shamir;
+import com.thebuildingblocks.derec.crypto.aesgcm.Counterparty;
+import com.thebuildingblocks.derec.crypto.aesgcm.DerivedKeyCache;
+import com.thebuildingblocks.derec.crypto.aesgcm.Hkdf;
+import com.thebuildingblocks.derec.crypto.aesgcm.KeyPairPool;
+import com.thebuildingblocks.derec.crypto.aesgcm.Message;
+import com.thebuildingblocks.derec.crypto.aesgcm.NonceSequence;
+import com.thebuildingblocks.derec.crypto.aesgcm.SegmentedAead;
+import com.thebuildingblocks.derec.crypto.provider.ProviderPolicy;
 import org.junit.Before;
 import org.junit.Test;
 
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyPair;
 import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
 import java.security.PublicKey;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.thebuildingblocks.derec.crypto.aesgcm.Crypto.*;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class AESGCMTest {
 
@@ -74,4 +112,414 @@ public class AESGCMTest {
         byte [] bobEcdhKey = generateSharedSecret(bob.getPrivate(), alice.getPublic());
         assertArrayEquals(plainText, decryptWithPrefixIv(cipherTextWithIv, generateSecretKey(bobEcdhKey)));
     }
+
+    @Test
+    public void testEncryptBuffers() {
+        SecretKey key = generateSecretKey(generateSharedSecret(alice.getPrivate(), bob.getPublic()));
+        byte[] plainText = "test 123 in a buffer".getBytes(StandardCharsets.UTF_8);
+        for (boolean direct : new boolean[]{false, true}) {
+            ByteBuffer in = direct ? ByteBuffer.allocateDirect(plainText.length + 3) : ByteBuffer.allocate(
+                    plainText.length + 3);
+            in.position(3).mark();
+            in.put(plainText).reset();
+            int length = prefixIvEncryptedLength(plainText.length);
+            ByteBuffer out = direct ? ByteBuffer.allocateDirect(length + 5) : ByteBuffer.allocate(length + 5);
+            out.position(5);
+            assertEquals(length, encryptWithPrefixIv(in, key, out));
+            assertEquals(0, in.remaining());
+            assertEquals(length + 5, out.position());
+
+            // the buffer and array forms are interchangeable
+            byte[] cipherText = new byte[length];
+            out.get(5, cipherText);
+            assertArrayEquals(plainText, decryptWithPrefixIv(cipherText, key));
+
+            ByteBuffer decrypted = direct ? ByteBuffer.allocateDirect(plainText.length) : ByteBuffer.allocate(
+                    plainText.length);
+            assertEquals(plainText.length, decryptWithPrefixIv(out.flip().position(5), key, decrypted));
+            byte[] result = new byte[plainText.length];
+            decrypted.flip().get(result);
+            assertArrayEquals(plainText, result);
+
+            ByteBuffer wrapped = ByteBuffer.wrap(encryptWithPrefixIv(plainText, key, generateIv()));
+            decrypted.clear();
+            decryptWithPrefixIv(wrapped, key, decrypted);
+            Arrays.fill(result, (byte) 0);
+            decrypted.flip().get(result);
+            assertArrayEquals(plainText, result);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEncryptBufferTooSmall() {
+        SecretKey key = generateSecretKey(generateSharedSecret(alice.getPrivate(), bob.getPublic()));
+        encryptWithPrefixIv(ByteBuffer.allocate(16), key, ByteBuffer.allocate(prefixIvEncryptedLength(16) - 1));
+    }
+
+    @Test
+    public void testSegmented() throws IOException {
+        SecretKey key = generateSecretKey(generateSharedSecret(alice.getPrivate(), bob.getPublic()));
+        SegmentedAead aead = new SegmentedAead(key, 64);
+        for (int length : new int[]{0, 1, 63, 64, 65, 128, 1000}) {
+            byte[] plainText = new byte[length];
+            new Random(length).nextBytes(plainText);
+            ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+            try (OutputStream out = aead.encrypt(encrypted)) {
+                // uneven writes across segment boundaries
+                for (int done = 0; done < length; done += 37) {
+                    out.write(plainText, done, Math.min(37, length - done));
+                }
+            }
+            byte[] cipherText = encrypted.toByteArray();
+            assertEquals(SegmentedAead.encryptedLength(length, 64), cipherText.length);
+            try (InputStream in = aead.decrypt(new ByteArrayInputStream(cipherText))) {
+                assertArrayEquals(plainText, in.readAllBytes());
+            }
+
+            ByteBuffer decrypted = ByteBuffer.allocate(length);
+            try (ReadableByteChannel in = aead.decrypt(Channels.newChannel(new ByteArrayInputStream(cipherText)))) {
+                while (in.read(decrypted) > 0) {
+                    // keep reading
+                }
+            }
+            assertArrayEquals(plainText, decrypted.array());
+        }
+    }
+
+    @Test
+    public void testSegmentedTampering() throws IOException {
+        SecretKey key = generateSecretKey(generateSharedSecret(alice.getPrivate(), bob.getPublic()));
+        SegmentedAead aead = new SegmentedAead(key, 64);
+        byte[] plainText = Shamir.makeSecret(200);
+        ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+        try (OutputStream out = aead.encrypt(encrypted)) {
+            out.write(plainText);
+        }
+        byte[] cipherText = encrypted.toByteArray();
+        int segment = 64 + TAG_LENGTH_BYTE;
+
+        // first segment is released before the stream is complete
+        try (InputStream in = aead.decrypt(new ByteArrayInputStream(cipherText, 0, SegmentedAead.HEADER_LENGTH +
+                segment + 1))) {
+            assertArrayEquals(Arrays.copyOf(plainText, 64), in.readNBytes(64));
+        }
+
+        byte[] flipped = cipherText.clone();
+        flipped[flipped.length - 1] ^= 1;
+        byte[] truncated = Arrays.copyOf(cipherText, SegmentedAead.HEADER_LENGTH + 2 * segment);
+        byte[] swapped = cipherText.clone();
+        System.arraycopy(cipherText, SegmentedAead.HEADER_LENGTH, swapped, SegmentedAead.HEADER_LENGTH + segment,
+                segment);
+        System.arraycopy(cipherText, SegmentedAead.HEADER_LENGTH + segment, swapped, SegmentedAead.HEADER_LENGTH,
+                segment);
+        for (byte[] tampered : new byte[][]{flipped, truncated, swapped}) {
+            try (InputStream in = aead.decrypt(new ByteArrayInputStream(tampered))) {
+                in.readAllBytes();
+                fail("Tampering not detected");
+            } catch (IOException e) {
+                // authentication fails
+            }
+        }
+    }
+
+    @Test
+    public void testNonceSequence() throws Exception {
+        Set<ByteBuffer> nonces = ConcurrentHashMap.newKeySet();
+        NonceSequence sequence = new NonceSequence(() -> {
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 10000; i++) {
+                        assertTrue(nonces.add(ByteBuffer.wrap(sequence.next())));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(40000, sequence.used());
+
+        AtomicInteger rekeys = new AtomicInteger();
+        NonceSequence limited = new NonceSequence(3, rekeys::incrementAndGet);
+        SecretKey key = generateSecretKey(generateSharedSecret(alice.getPrivate(), bob.getPublic()));
+        byte[] plainText = "test 123".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < 3; i++) {
+            ByteBuffer out = ByteBuffer.allocate(prefixIvEncryptedLength(plainText.length));
+            encryptWithPrefixIv(ByteBuffer.wrap(plainText), key, limited, out);
+            assertArrayEquals(plainText, decryptWithPrefixIv(out.array(), key));
+            assertEquals(i == 2 ? 1 : 0, rekeys.get());
+        }
+        assertTrue(limited.isExhausted());
+        try {
+            limited.next();
+            fail("Sequence should be exhausted");
+        } catch (IllegalStateException e) {
+            // rekey needed
+        }
+        assertEquals(1, rekeys.get());
+    }
+
+    @Test
+    public void testHkdf() {
+        // RFC 5869 test case 1
+        byte[] ikm = new byte[22];
+        Arrays.fill(ikm, (byte) 0x0b);
+        byte[] salt = HexFormat.of().parseHex("000102030405060708090a0b0c");
+        byte[] info = HexFormat.of().parseHex("f0f1f2f3f4f5f6f7f8f9");
+        assertEquals("077709362c2e32df0ddc3f0dc47bba6390b6c73bb50f9c3122ec844ad7c2b3e5",
+                HexFormat.of().formatHex(Hkdf.extract(salt, ikm)));
+        assertEquals("3cb25f25faacd57a90434f64d0362f2a2d2d0a90cf1a5a4c5db02d56ecc4c5bf34007208d5b887185865",
+                HexFormat.of().formatHex(Hkdf.derive(salt, ikm, info, 42)));
+    }
+
+    @Test
+    public void testDerivedKeyCache() {
+        DerivedKeyCache cache = new DerivedKeyCache(2, Duration.ofMinutes(1));
+        SecretKey aliceKey = cache.secretKey(alice, bob.getPublic(), "test");
+        SecretKey bobKey = cache.secretKey(bob, alice.getPublic().getEncoded(), "test");
+        assertArrayEquals(aliceKey.getEncoded(), bobKey.getEncoded());
+        assertArrayEquals(aliceKey.getEncoded(), deriveSecretKey(alice.getPrivate(), bob.getPublic(), "test")
+                .getEncoded());
+        assertSame(aliceKey, cache.secretKey(alice, bob.getPublic().getEncoded(), "test"));
+        assertNotEquals(ByteBuffer.wrap(aliceKey.getEncoded()),
+                ByteBuffer.wrap(cache.secretKey(alice, bob.getPublic(), "other").getEncoded()));
+        DerivedKeyCache.Stats stats = cache.stats();
+        assertEquals(1, stats.hits());
+        assertEquals(3, stats.misses());
+        assertEquals(1, stats.evictions());
+        assertEquals(2, stats.size());
+        cache.invalidate(bob);
+        assertEquals(2, cache.stats().size());
+        cache.invalidate(alice);
+        assertEquals(0, cache.stats().size());
+
+        DerivedKeyCache expiring = new DerivedKeyCache(2, Duration.ofNanos(1));
+        expiring.secretKey(alice, bob.getPublic(), "test");
+        expiring.secretKey(alice, bob.getPublic(), "test");
+        assertEquals(1, expiring.stats().expirations());
+        assertEquals(0, expiring.stats().hits());
+    }
+
+    @Test
+    public void testDestroyDropsCachedKeys() {
+        Counterparty.User user = new Counterparty.User("alice");
+        Counterparty.Helper helper = new Counterparty.Helper("bob");
+        byte[] response = helper.serialize(helper.createPairingResponse(user.createPairingRequest("bob")));
+        Counterparty.CounterpartyRecord record = user.cpDetails.get("bob");
+        Message.PairingResponse.deserialize(response, record);
+        int size = DerivedKeyCache.SHARED.stats().size();
+        record.destroy();
+        assertEquals(size - 1, DerivedKeyCache.SHARED.stats().size());
+    }
+
+    @Test
+    public void testKeyPairPool() throws Exception {
+        try (KeyPairPool pool = new KeyPairPool("EC", 2)) {
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (pool.stats().depth() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(2, pool.stats().depth());
+
+            Set<PublicKey> keys = ConcurrentHashMap.newKeySet();
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < 4; t++) {
+                    futures.add(executor.submit(() -> assertTrue(keys.add(pool.take().getPublic()))));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } finally {
+                executor.shutdown();
+            }
+            KeyPairPool.Stats stats = pool.stats();
+            assertEquals(4, stats.taken());
+            // at least two of them came from the pool
+            assertTrue(stats.inline() <= 2);
+            assertTrue(stats.generated() >= 2);
+            assertTrue(stats.refillRate() > 0);
+        }
+    }
+
+    @Test
+    public void testKeyAgreementNegotiation() {
+        for (String preferred : List.of("ECDH", "XDH")) {
+            Counterparty.User user = new Counterparty.User("alice");
+            user.setKeyAgreements(List.of("XDH", "ECDH"));
+            Counterparty.Helper helper = new Counterparty.Helper("bob");
+            helper.setKeyAgreements(List.of(preferred, "XDH".equals(preferred) ? "ECDH" : "XDH"));
+
+            Message.PairingRequest request = Message.PairingRequest.deserialize(
+                    user.serialize(user.createPairingRequest("bob")));
+            assertEquals(Set.of("XDH", "ECDH"), request.keyAgreements());
+            Message.PairingResponse response = helper.createPairingResponse(request);
+            assertEquals(preferred, response.keyAgreement);
+            assertEquals(preferred, helper.cpDetails.get("alice").getKeyParams().keyAgreementAlgo());
+
+            Counterparty.CounterpartyRecord record = user.cpDetails.get("bob");
+            Message.PairingResponse received = Message.PairingResponse.deserialize(helper.serialize(response), record);
+            assertEquals("bob", received.originatorName);
+            assertEquals(preferred, received.keyAgreement);
+            assertEquals(preferred, record.getKeyParams().keyAgreementAlgo());
+            assertEquals(helper.cpDetails.get("alice").getPublic().getAlgorithm(), record.getPublic().getAlgorithm());
+        }
+    }
+
+    @Test
+    public void testMessageBuffers() {
+        Counterparty.User user = new Counterparty.User("alice");
+        Counterparty.Helper helper = new Counterparty.Helper("bob");
+        Message.PairingRequest request = user.createPairingRequest("bob");
+
+        // written after some other content, read back from there
+        ByteBuffer buffer = ByteBuffer.allocate(1024).put((byte) 42);
+        byte[] requestMessage = user.serialize(request);
+        assertEquals(request.serializedLength(), requestMessage.length);
+        assertEquals(requestMessage.length, user.serialize(request, buffer));
+        buffer.flip().get();
+        assertEquals(ByteBuffer.wrap(requestMessage), buffer.slice(1, requestMessage.length));
+        Message.PairingRequest received = Message.PairingRequest.deserialize(buffer);
+        assertEquals(buffer.limit(), buffer.position());
+        assertEquals(request.keyAgreements(), received.keyAgreements());
+        for (String keyAgreement : request.keyAgreements()) {
+            assertEquals(request.originatorPublicKey(keyAgreement), received.originatorPublicKey(keyAgreement));
+        }
+
+        Message.PairingResponse response = helper.createPairingResponse(received);
+        int length = response.serializedLength(helper.cpDetails.get("alice").getPublic());
+        try {
+            helper.serialize(response, ByteBuffer.allocate(length - 1));
+            fail("Buffer too small");
+        } catch (IllegalArgumentException expected) {
+        }
+        ByteBuffer direct = ByteBuffer.allocateDirect(length);
+        assertEquals(length, helper.serialize(response, direct));
+        Message.PairingResponse decoded = Message.PairingResponse.deserialize(direct.flip(),
+                user.cpDetails.get("bob"));
+        assertEquals("bob", decoded.originatorName);
+        assertEquals(length, helper.serialize(response).length);
+    }
+
+    @Test
+    public void testForgedKeyAgreementChoice() {
+        Counterparty.User user = new Counterparty.User("alice");
+        user.setKeyAgreements(List.of("XDH", "ECDH"));
+        Counterparty.Helper helper = new Counterparty.Helper("bob");
+        helper.setKeyAgreements(List.of("XDH"));
+        byte[] genuine = helper.serialize(helper.createPairingResponse(user.createPairingRequest("bob")));
+
+        // the same iv and cipher text claiming ECDH with some other EC key
+        ByteBuffer in = ByteBuffer.wrap(genuine);
+        in.position(2 * Short.BYTES + Short.BYTES + "XDH".length());
+        in.position(in.position() + Integer.BYTES + in.getInt());
+        byte[] ecKey = bob.getPublic().getEncoded();
+        ByteBuffer forged = ByteBuffer.allocate(genuine.length + ecKey.length)
+                .putShort((short) 2).putShort((short) 1)
+                .putShort((short) 4).put("ECDH".getBytes(StandardCharsets.UTF_8))
+                .putInt(ecKey.length).put(ecKey)
+                .put(in)
+                .flip();
+
+        Counterparty.CounterpartyRecord record = user.cpDetails.get("bob");
+        try {
+            Message.PairingResponse.deserialize(forged, record);
+            fail("Forged response accepted");
+        } catch (RuntimeException expected) {
+        }
+        assertNull(record.getKeyParams());
+        Message.PairingResponse received = Message.PairingResponse.deserialize(genuine, record);
+        assertEquals("XDH", received.keyAgreement);
+        assertEquals("XDH", record.getKeyParams().keyAgreementAlgo());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOversizedPairingResponse() {
+        Counterparty.User user = new Counterparty.User("alice");
+        Counterparty.Helper helper = new Counterparty.Helper("bob");
+        byte[] genuine = helper.serialize(helper.createPairingResponse(user.createPairingRequest("bob")));
+        byte[] padded = Arrays.copyOf(genuine, genuine.length + 0x10000);
+        Message.PairingResponse.deserialize(padded, user.cpDetails.get("bob"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testKeyAgreementNoneInCommon() {
+        Counterparty.User user = new Counterparty.User("alice");
+        user.setKeyAgreements(List.of("XDH"));
+        Counterparty.Helper helper = new Counterparty.Helper("bob");
+        helper.setKeyAgreements(List.of("ECDH"));
+        helper.createPairingResponse(user.createPairingRequest("bob"));
+    }
+
+    @Test
+    public void testProviderPolicy() throws Exception {
+        ProviderPolicy policy = new ProviderPolicy(false);
+        assertEquals("SunJCE", policy.provider(ProviderPolicy.Primitive.AES_GCM).getName());
+        assertSame(policy.provider(ProviderPolicy.Primitive.AES_GCM), policy.provider("cipher", "aes/gcm/nopadding"));
+        assertEquals("SunEC", policy.provider("KeyAgreement", "ECDH").getName());
+        // nothing is timed until asked for
+        assertTrue(policy.choices().values().stream().allMatch(choice -> choice.nanos().isEmpty()));
+        assertNull(policy.provider("Cipher", "ChaCha20-Poly1305"));
+
+        ProviderPolicy.Choice choice = policy.calibrate(ProviderPolicy.Primitive.SHA_256);
+        assertEquals(Set.of("SUN", "BC"), choice.nanos().keySet());
+        assertEquals(choice, policy.choices().get(ProviderPolicy.Primitive.SHA_256));
+        assertEquals(choice.provider(), policy.provider(ProviderPolicy.Primitive.SHA_256).getName());
+
+        // either provider decrypts what the other encrypted
+        policy.set(ProviderPolicy.Primitive.AES_GCM, "BC");
+        assertEquals("BC", policy.provider(ProviderPolicy.Primitive.AES_GCM).getName());
+        assertTrue(policy.choices().get(ProviderPolicy.Primitive.AES_GCM).nanos().isEmpty());
+        SecretKey secretKey = generateSecretKey(generateSharedSecret(alice.getPrivate(), bob.getPublic()));
+        byte[] iv = generateIv();
+        Cipher bc = Cipher.getInstance(ENCRYPT_ALGO, policy.provider(ProviderPolicy.Primitive.AES_GCM));
+        bc.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(TAG_LENGTH_BIT, iv));
+        byte[] plainText = "test".getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(plainText, doDecrypt(bc.doFinal(plainText), secretKey, iv));
+
+        try {
+            policy.set(ProviderPolicy.Primitive.ECDH, "SunJCE");
+            fail("SunJCE has no ECDH");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            policy.set(ProviderPolicy.Primitive.ECDH, "nonesuch");
+            fail("No such provider");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testConcurrentReuse() throws Exception {
+        byte[] bobPublic = bob.getPublic().getEncoded();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 50; i++) {
+                        byte[] plainText = ("test " + i).getBytes(StandardCharsets.UTF_8);
+                        byte[] aliceKey = generateSharedSecret(alice.getPrivate(), publicKeyFromByteArray(bobPublic));
+                        byte[] cipherText = encryptWithPrefixIv(plainText, generateSecretKey(aliceKey), generateIv());
+                        byte[] bobKey = generateSharedSecret(bob.getPrivate(), alice.getPublic());
+                        assertArrayEquals(plainText, decryptWithPrefixIv(cipherText, generateSecretKey(bobKey)));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
\ No newline at end of file
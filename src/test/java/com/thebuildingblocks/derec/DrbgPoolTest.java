@@ -0,0 +1,59 @@
+package com.thebuildingblocks.derec;
+
+import com.thebuildingblocks.derec.crypto.ShamirInterfaces.Splitter;
+import com.thebuildingblocks.derec.crypto.random.DrbgPool;
+import com.thebuildingblocks.derec.crypto.random.ReseedPolicy;
+import com.thebuildingblocks.derec.crypto.shamir.Splitters;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DrbgPoolTest {
+
+    @Test
+    public void testRequestSizes() {
+        DrbgPool pool = new DrbgPool(64, ReseedPolicy.NEVER);
+        // smaller than, straddling and larger than the buffer, and larger than a single DRBG request
+        for (int size : new int[]{1, 12, 63, 64, 65, 1000, 1 << 20}) {
+            byte[] bytes = new byte[size + 2];
+            pool.nextBytes(bytes, 1, size);
+            assertEquals(0, bytes[0]);
+            assertEquals(0, bytes[size + 1]);
+            if (size >= 12) {
+                assertFalse(Arrays.equals(new byte[size], Arrays.copyOfRange(bytes, 1, size + 1)));
+            }
+        }
+        byte[] iv1 = new byte[12];
+        byte[] iv2 = new byte[12];
+        pool.secureRandom().nextBytes(iv1);
+        pool.secureRandom().nextBytes(iv2);
+        assertFalse(Arrays.equals(iv1, iv2));
+    }
+
+    @Test
+    public void testReseedAndThreads() throws InterruptedException {
+        DrbgPool pool = new DrbgPool(100, ReseedPolicy.afterBytes(250));
+        byte[] bytes = new byte[10];
+        for (int i = 0; i < 100; i++) {
+            pool.nextBytes(bytes);
+        }
+        // 10 refills of 100, reseeding before the 4th, 7th and 10th
+        assertEquals(new DrbgPool.Stats(1, 10, 3, 1000), pool.stats());
+
+        Thread thread = new Thread(() -> pool.nextBytes(new byte[10]));
+        thread.start();
+        thread.join();
+        assertEquals(2, pool.stats().generators());
+    }
+
+    @Test
+    public void testDefaultSplitter() {
+        byte[] secret = "a secret".getBytes();
+        Splitter splitter = Splitters.factory("gf256").newSplitter(5, 3);
+        List<byte[]> shares = splitter.split(null, 1, secret);
+        assertArrayEquals(secret, splitter.combine(null, 1, shares.subList(1, 4)));
+    }
+}
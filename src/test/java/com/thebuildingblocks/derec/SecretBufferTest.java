@@ -0,0 +1,47 @@
+package com.thebuildingblocks.derec;
+
+import com.thebuildingblocks.derec.crypto.secret.SecretBuffer;
+import com.thebuildingblocks.derec.crypto.secret.SecretBufferPool;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class SecretBufferTest {
+
+    @Test
+    public void testZeroedOnReuse() {
+        SecretBufferPool pool = new SecretBufferPool(1024, 1 << 20);
+        SecretBuffer first = pool.acquire(100);
+        ByteBuffer view = first.buffer();
+        assertEquals(100, view.remaining());
+        assertTrue(view.isDirect());
+        for (int i = 0; i < 100; i++) {
+            view.put(i, (byte) 0xa5);
+        }
+        first.close();
+        first.close();
+        assertEquals(new SecretBufferPool.Stats(1, 0, 1, 128), pool.stats());
+
+        // same size class, so the same memory
+        SecretBuffer second = pool.acquire(120);
+        assertEquals(new SecretBufferPool.Stats(1, 1, 1, 0), pool.stats());
+        for (int i = 0; i < 120; i++) {
+            assertEquals(0, second.get(i));
+        }
+        second.close();
+
+        // too big to pool
+        pool.acquire(2000).close();
+        assertEquals(new SecretBufferPool.Stats(2, 1, 3, 128), pool.stats());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUseAfterClose() {
+        SecretBuffer buffer = SecretBufferPool.DEFAULT.copyOf(new byte[]{1, 2, 3});
+        assertArrayEquals(new byte[]{1, 2, 3}, buffer.toByteArray());
+        buffer.close();
+        buffer.get(0);
+    }
+}
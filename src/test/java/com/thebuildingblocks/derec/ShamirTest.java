@@ -0,0 +1,437 @@
+package com.thebuildingblocks.derec;
+
+import com.thebuildingblocks.derec.crypto.Shamir;
+import com.thebuildingblocks.derec.crypto.ShamirInterfaces.BatchEntry;
+import com.thebuildingblocks.derec.crypto.ShamirInterfaces.BatchShares;
+import com.thebuildingblocks.derec.crypto.ShamirInterfaces.Splitter;
+import com.thebuildingblocks.derec.crypto.ShamirInterfaces.SplitterFactory;
+import com.thebuildingblocks.derec.crypto.secret.SecretBuffer;
+import com.thebuildingblocks.derec.crypto.secret.SecretBufferPool;
+import com.thebuildingblocks.derec.crypto.shamir.AdaptiveSplitterFactory;
+import com.thebuildingblocks.derec.crypto.shamir.GF256Splitter;
+import com.thebuildingblocks.derec.crypto.shamir.GF256StreamSplitter;
+import com.thebuildingblocks.derec.crypto.shamir.HybridSplitter;
+import com.thebuildingblocks.derec.crypto.shamir.LagrangeCache;
+import com.thebuildingblocks.derec.crypto.shamir.MappedFileSplitter;
+import com.thebuildingblocks.derec.crypto.shamir.PackedSplitter;
+import com.thebuildingblocks.derec.crypto.shamir.ParallelSplitter;
+import com.thebuildingblocks.derec.crypto.shamir.ShareContainer;
+import com.thebuildingblocks.derec.crypto.shamir.Splitters;
+import org.derecalliance.derec.api.DeRecSecret;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ShamirTest {
+
+    static final SecureRandom random = new SecureRandom();
+    // lengths either side of the vector, long and block widths
+    static final int[] SIZES = {0, 1, 7, 8, 9, 31, 33, 64, 2047, 2049, 5000};
+
+    static Splitter splitter(String name, int count, int threshold) {
+        return Splitters.factory(name).newSplitter(random, count, threshold);
+    }
+
+    @Test
+    public void testSplitCombineEachImplementation() {
+        for (String name : Splitters.SPLITTER_FACTORY_MAP.keySet()) {
+            for (int size : SIZES) {
+                byte[] secret = new byte[size];
+                random.nextBytes(secret);
+                Splitter splitter = splitter(name, 10, 4);
+                List<byte[]> shares = new ArrayList<>(splitter.split(null, 1, secret));
+                assertEquals(10, shares.size());
+                Collections.shuffle(shares, random);
+                assertArrayEquals(name + " " + size, secret, splitter.combine(null, 1, shares.subList(0, 4)));
+            }
+        }
+    }
+
+    @Test
+    public void testCompatibleWithCodahale() {
+        for (String name : Splitters.SPLITTER_FACTORY_MAP.keySet()) {
+            for (int threshold : new int[]{2, 3, 17, 255}) {
+                byte[] secret = Shamir.makeSecret(100);
+                Splitter codahale = splitter("codahale", 255, threshold);
+                Splitter other = splitter(name, 255, threshold);
+
+                List<byte[]> theirs = new ArrayList<>(other.split(null, 1, secret));
+                Collections.shuffle(theirs, random);
+                assertArrayEquals(name, secret, codahale.combine(null, 1, theirs.subList(0, threshold)));
+
+                List<byte[]> ours = new ArrayList<>(codahale.split(null, 1, secret));
+                Collections.shuffle(ours, random);
+                assertArrayEquals(name, secret, other.combine(null, 1, ours.subList(0, threshold)));
+            }
+        }
+    }
+
+    @Test
+    public void testParallel() {
+        byte[] secret = new byte[100_001];
+        random.nextBytes(secret);
+        Splitter parallel = new ParallelSplitter(random, 7, 3, ForkJoinPool.commonPool(), 0);
+        List<byte[]> shares = new ArrayList<>(parallel.split(null, 1, secret));
+        Collections.shuffle(shares, random);
+        assertArrayEquals(secret, parallel.combine(null, 1, shares));
+        assertArrayEquals(secret, splitter("codahale", 7, 3).combine(null, 1, shares.subList(0, 3)));
+    }
+
+    @Test
+    public void testStream() throws IOException {
+        byte[] secret = new byte[200_003];
+        random.nextBytes(secret);
+        GF256StreamSplitter streamSplitter = new GF256StreamSplitter(new GF256Splitter(random, 5, 3), 4096);
+
+        List<ByteArrayOutputStream> outputs = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            outputs.add(new ByteArrayOutputStream());
+        }
+        streamSplitter.split(null, 1, new ByteArrayInputStream(secret), outputs);
+
+        List<byte[]> shares = new ArrayList<>();
+        for (ByteArrayOutputStream output : outputs) {
+            shares.add(output.toByteArray());
+        }
+        Collections.shuffle(shares, random);
+
+        List<ByteArrayInputStream> inputs = new ArrayList<>();
+        for (byte[] share : shares.subList(0, 3)) {
+            inputs.add(new ByteArrayInputStream(share));
+        }
+        ByteArrayOutputStream combined = new ByteArrayOutputStream();
+        streamSplitter.combine(null, 1, inputs, combined);
+        assertArrayEquals(secret, combined.toByteArray());
+
+        // streamed shares are the same as whole shares
+        assertArrayEquals(secret, splitter("codahale", 5, 3).combine(null, 1, shares.subList(2, 5)));
+    }
+
+    @Test
+    public void testMappedFile() throws IOException {
+        byte[] secret = new byte[300_007];
+        random.nextBytes(secret);
+        Path directory = Files.createTempDirectory("derec");
+        try {
+            Path secretFile = Files.write(directory.resolve("secret"), secret);
+            List<Path> shareFiles = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                shareFiles.add(directory.resolve("share" + i));
+            }
+            // small window so that several mappings are used
+            MappedFileSplitter mapped = new MappedFileSplitter(new GF256Splitter(random, 6, 4), 65536);
+            mapped.split(null, 1, secretFile, shareFiles);
+
+            List<byte[]> shares = new ArrayList<>();
+            for (Path shareFile : shareFiles) {
+                shares.add(Files.readAllBytes(shareFile));
+            }
+            assertArrayEquals(secret, splitter("codahale", 6, 4).combine(null, 1, shares.subList(2, 6)));
+
+            Path combined = directory.resolve("combined");
+            mapped.combine(null, 1, shareFiles.subList(1, 5), combined);
+            assertArrayEquals(secret, Files.readAllBytes(combined));
+        } finally {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLagrangeCache() {
+        LagrangeCache cache = new LagrangeCache(2);
+        Splitter splitter = new GF256Splitter(random, 6, 3, cache);
+        List<byte[]> shares = splitter.split(null, 1, Shamir.makeSecret(64));
+
+        splitter.combine(null, 1, List.of(shares.get(0), shares.get(1), shares.get(2)));
+        // same set in a different order hits
+        byte[] secret = splitter.combine(null, 1, List.of(shares.get(2), shares.get(0), shares.get(1)));
+        assertArrayEquals(Shamir.makeSecret(64), secret);
+        assertEquals(new LagrangeCache.Stats(1, 1, 0, 1), cache.stats());
+
+        splitter.combine(null, 1, List.of(shares.get(3), shares.get(4), shares.get(5)));
+        splitter.combine(null, 1, List.of(shares.get(1), shares.get(3), shares.get(5)));
+        assertEquals(new LagrangeCache.Stats(1, 3, 1, 2), cache.stats());
+    }
+
+    @Test
+    public void testBatch() {
+        List<BatchEntry> batch = new ArrayList<>();
+        for (int size = 0; size < 300; size += 7) {
+            byte[] secret = new byte[size];
+            random.nextBytes(secret);
+            batch.add(new BatchEntry(null, 1, secret));
+        }
+        GF256Splitter splitter = new GF256Splitter(random, 5, 3);
+        BatchShares shares = splitter.splitBatch(batch);
+        assertEquals(batch.size(), shares.secretCount());
+        for (int s = 0; s < batch.size(); s++) {
+            List<byte[]> secretShares = shares.shares(s);
+            assertArrayEquals(batch.get(s).secret(), splitter.combine(null, 1, secretShares.subList(2, 5)));
+        }
+        // a row is a share of the whole batch
+        List<byte[]> rows = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ByteBuffer row = shares.row(i);
+            byte[] bytes = new byte[row.remaining()];
+            row.get(bytes);
+            rows.add(bytes);
+        }
+        byte[] combined = splitter.combine(null, 1, rows);
+        assertArrayEquals(batch.get(1).secret(), Arrays.copyOfRange(combined, 0, 7));
+    }
+
+    @Test
+    public void testSecretBuffers() {
+        byte[] secret = Shamir.makeSecret(5000);
+        for (String name : new String[]{"codahale", "gf256", "gf256-parallel"}) {
+            Splitter splitter = splitter(name, 6, 4);
+            try (SecretBuffer secretBuffer = SecretBufferPool.DEFAULT.copyOf(secret)) {
+                List<SecretBuffer> shares = splitter.split(null, 1, secretBuffer, SecretBufferPool.DEFAULT);
+                assertEquals(6, shares.size());
+                // interchangeable with shares on the heap
+                List<byte[]> heapShares = new ArrayList<>();
+                for (SecretBuffer share : shares) {
+                    heapShares.add(share.toByteArray());
+                }
+                assertArrayEquals(name, secret, splitter.combine(null, 1, heapShares.subList(2, 6)));
+                try (SecretBuffer combined = splitter.combine(null, 1, shares.subList(0, 4),
+                        SecretBufferPool.DEFAULT)) {
+                    assertArrayEquals(name, secret, combined.toByteArray());
+                }
+                shares.forEach(SecretBuffer::close);
+            }
+        }
+    }
+
+    @Test
+    public void testRefresh() {
+        byte[] secret = Shamir.makeSecret(5000);
+        GF256Splitter splitter = new GF256Splitter(random, 6, 3);
+        List<byte[]> shares = splitter.split(null, 1, secret);
+        List<byte[]> refreshed = splitter.refresh(null, 2, shares);
+        for (int i = 0; i < 6; i++) {
+            assertEquals(shares.get(i)[0], refreshed.get(i)[0]);
+            assertFalse(Arrays.equals(shares.get(i), refreshed.get(i)));
+        }
+        assertArrayEquals(secret, splitter.combine(null, 2, refreshed.subList(3, 6)));
+        assertArrayEquals(secret, splitter("codahale", 6, 3).combine(null, 2, refreshed.subList(0, 3)));
+        // old and new don't mix
+        List<byte[]> mixed = List.of(shares.get(0), refreshed.get(1), refreshed.get(2));
+        assertFalse(Arrays.equals(secret, splitter.combine(null, 2, mixed)));
+    }
+
+    @Test
+    public void testDistributedRefresh() {
+        byte[] secret = Shamir.makeSecret(100);
+        GF256Splitter splitter = new GF256Splitter(random, 5, 3);
+        List<byte[]> shares = splitter.split(null, 1, secret);
+        int[] xs = {1, 2, 3, 4, 5};
+        // every holder deals an update to every holder
+        List<List<byte[]>> dealt = new ArrayList<>();
+        for (int dealer = 0; dealer < 5; dealer++) {
+            dealt.add(splitter.zeroShares(null, 2, xs, secret.length));
+        }
+        List<byte[]> refreshed = new ArrayList<>();
+        for (int holder = 0; holder < 5; holder++) {
+            List<byte[]> updates = new ArrayList<>();
+            for (List<byte[]> fromDealer : dealt) {
+                updates.add(fromDealer.get(holder));
+            }
+            refreshed.add(splitter.applyUpdates(shares.get(holder), updates));
+        }
+        assertArrayEquals(secret, splitter.combine(null, 2, refreshed.subList(1, 4)));
+        // updates on their own are shares of zero
+        assertArrayEquals(new byte[secret.length], splitter.combine(null, 2, dealt.get(0).subList(0, 3)));
+    }
+
+    @Test
+    public void testShareContainer() {
+        byte[] secret = Shamir.makeSecret(1000);
+        DeRecSecret.Id id = new DeRecSecret.Id("secret id".getBytes());
+        List<byte[]> shares = splitter("gf256", 5, 3).split(id, 7, secret);
+        // containers back to back in one buffer, as a helper might store them
+        ByteBuffer store = ByteBuffer.allocateDirect(5 * ShareContainer.encodedLength(9, secret.length));
+        for (byte[] share : shares) {
+            ShareContainer container = ShareContainer.encode(id, 7, 3, 5, share[0],
+                    ByteBuffer.wrap(share, 1, share.length - 1), store);
+            assertEquals(ShareContainer.encodedLength(9, secret.length), container.encodedLength());
+        }
+        assertEquals(0, store.flip().position());
+
+        List<byte[]> decoded = new ArrayList<>();
+        while (store.hasRemaining()) {
+            ShareContainer container = ShareContainer.wrap(store);
+            assertEquals(ByteBuffer.wrap("secret id".getBytes()), container.idBytes());
+            assertEquals(7, container.version());
+            assertEquals(3, container.threshold());
+            assertEquals(5, container.count());
+            assertEquals(secret.length, container.payloadLength());
+            assertTrue(container.payload().isDirect());
+            decoded.add(container.toShare());
+        }
+        assertArrayEquals(secret, splitter("codahale", 5, 3).combine(id, 7, decoded.subList(2, 5)));
+
+        byte[] encoded = ShareContainer.encode(id, 7, 3, 5, shares.get(0));
+        assertArrayEquals(shares.get(0), ShareContainer.wrap(ByteBuffer.wrap(encoded)).toShare());
+        encoded[encoded.length - 1] ^= 1;
+        assertFalse(ShareContainer.wrap(ByteBuffer.wrap(encoded)).isValid());
+    }
+
+    @Test
+    public void testShareContainerEncodedBackToBack() {
+        DeRecSecret.Id id = new DeRecSecret.Id("secret id".getBytes());
+        List<byte[]> shares = splitter("gf256", 5, 3).split(id, 7, Shamir.makeSecret(100));
+        byte[] first = ShareContainer.encode(id, 7, 3, 5, shares.get(0));
+        byte[] second = ShareContainer.encode(id, 7, 3, 5, shares.get(1));
+        ByteBuffer store = ByteBuffer.allocate(first.length + second.length).put(first).put(second).flip();
+        assertEquals(ByteBuffer.wrap(first), ShareContainer.wrap(store).encoded());
+        assertEquals(ByteBuffer.wrap(second), ShareContainer.wrap(store).encoded());
+        assertFalse(store.hasRemaining());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testShareContainerThresholdAboveCount() {
+        byte[] encoded = ShareContainer.encode(null, 1, 3, 5, splitter("gf256", 5, 3).split(null, 1,
+                Shamir.makeSecret(10)).get(0));
+        // count, at offset 10, below the threshold of 3
+        encoded[10] = 2;
+        ShareContainer.wrap(ByteBuffer.wrap(encoded));
+    }
+
+    @Test
+    public void testAdaptive() throws IOException {
+        Map<String, SplitterFactory> candidates = new LinkedHashMap<>();
+        candidates.put("codahale", Splitters.factory("codahale"));
+        candidates.put("gf256-table", Splitters.factory("gf256-table"));
+        candidates.put("gf256-swar", Splitters.factory("gf256-swar"));
+        // codahale wins small secrets, gf256-swar large ones, gf256-table is always far behind
+        AdaptiveSplitterFactory.Timing timing = (name, factory, size, count, threshold) -> switch (name) {
+            case "codahale" -> 10L * size;
+            case "gf256-swar" -> 1000 + size;
+            default -> 100L * size;
+        };
+        AdaptiveSplitterFactory factory = new AdaptiveSplitterFactory(candidates, "gf256-table", timing);
+        // nothing chosen yet, nothing timed on use
+        assertEquals("gf256-table", factory.choose(1000, 5, 3));
+        assertTrue(factory.choices().isEmpty());
+
+        AdaptiveSplitterFactory.Bucket small = AdaptiveSplitterFactory.Bucket.of(32, 5, 3);
+        AdaptiveSplitterFactory.Bucket large = AdaptiveSplitterFactory.Bucket.of(100000, 5, 3);
+        factory.calibrate(List.of(small, large));
+        assertEquals("codahale", factory.choose(50, 5, 3));
+        assertEquals("gf256-swar", factory.choose(100000, 5, 3));
+        // only those close to the best on the probe are timed at full size
+        assertEquals(Set.of("codahale", "gf256-swar"), factory.choices().get(large).nanos().keySet());
+        assertEquals(AdaptiveSplitterFactory.MAX_CALIBRATION_SIZE + 1000,
+                (long) factory.choices().get(large).nanos().get("gf256-swar"));
+
+        Splitter splitter = factory.newSplitter(random, 5, 3);
+        byte[] secret = Shamir.makeSecret(100000);
+        List<byte[]> shares = splitter.split(null, 1, secret);
+        assertArrayEquals(secret, splitter.combine(null, 1, shares.subList(0, 3)));
+
+        StringWriter profile = new StringWriter();
+        factory.storeProfile(profile);
+        AdaptiveSplitterFactory loaded = new AdaptiveSplitterFactory(candidates, "gf256-table", (name, f, size,
+                count, threshold) -> {
+            throw new AssertionError("Timed " + name);
+        });
+        loaded.loadProfile(new StringReader(profile.toString() + "1024/8/8=codahale\n"));
+        assertEquals("codahale", loaded.choose(50, 5, 3));
+        assertEquals("gf256-swar", loaded.choose(100000, 5, 3));
+        assertEquals("codahale", loaded.choose(1000, 5, 3));
+        assertEquals(Set.of(small, large, AdaptiveSplitterFactory.Bucket.of(1000, 5, 3)),
+                loaded.choices().keySet());
+    }
+
+    @Test
+    public void testPacked() {
+        List<byte[]> secrets = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            byte[] secret = new byte[32 + i];
+            random.nextBytes(secret);
+            secrets.add(secret);
+        }
+        PackedSplitter splitter = new PackedSplitter(random, 10, 3, 4);
+        List<byte[]> shares = splitter.splitAll(null, 1, secrets);
+        assertEquals(10, shares.size());
+        // a quarter of the size of a share of the concatenated secrets
+        assertEquals((20 * 4 + 20 * 32 + 190) / 4 + 2, shares.get(0).length);
+        List<byte[]> some = new ArrayList<>(shares);
+        Collections.shuffle(some, random);
+        List<byte[]> combined = splitter.combineAll(null, 1, some.subList(0, 7));
+        assertEquals(secrets.size(), combined.size());
+        for (int i = 0; i < secrets.size(); i++) {
+            assertArrayEquals(secrets.get(i), combined.get(i));
+        }
+
+        for (int size : SIZES) {
+            byte[] secret = new byte[size];
+            random.nextBytes(secret);
+            Splitter packed = PackedSplitter.factory(3).newSplitter(random, 8, 5);
+            assertArrayEquals(secret, packed.combine(null, 1, packed.split(null, 1, secret).subList(3, 8)));
+        }
+    }
+
+    @Test
+    public void testHybrid() {
+        HybridSplitter splitter = new HybridSplitter(random, 7, 4);
+        for (int size : SIZES) {
+            byte[] secret = new byte[size];
+            random.nextBytes(secret);
+            List<byte[]> shares = new ArrayList<>(splitter.split(null, 1, secret));
+            Collections.shuffle(shares, random);
+            assertArrayEquals(secret, splitter.combine(null, 1, shares.subList(0, 4)));
+        }
+        byte[] secret = Shamir.makeSecret(100000);
+        List<byte[]> shares = splitter.split(null, 1, secret);
+        // a quarter of the IV, ciphertext and tag each, plus the key share and length
+        assertEquals(1 + 32 + 4 + (12 + 100000 + 16 + 3) / 4, shares.get(0).length);
+        shares.get(6)[100] ^= 1;
+        try {
+            splitter.combine(null, 1, shares.subList(3, 7));
+            fail("Tampered share accepted");
+        } catch (RuntimeException e) {
+            // GCM authentication fails
+        }
+
+        HybridSplitter.Sealed sealed = splitter.seal(null, 1, secret);
+        assertEquals(33, sealed.keyShares().get(0).length);
+        assertArrayEquals(secret, splitter.open(null, 1, sealed.keyShares().subList(1, 5), sealed.ciphertext()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooFewShares() {
+        Splitter splitter = splitter("gf256", 5, 3);
+        List<byte[]> shares = splitter.split(null, 1, Shamir.makeSecret(16));
+        splitter.combine(null, 1, shares.subList(0, 2));
+    }
+}